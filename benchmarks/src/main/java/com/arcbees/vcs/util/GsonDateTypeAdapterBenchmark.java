@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonPrimitive;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonDateTypeAdapterBenchmark {
+    @Param({"2016-02-10T15:01:23.456-05:00", "2016-02-10T15:01:23Z", "2016-02-10T15:01:23.456789-05:00",
+            "1455134483456"})
+    private String value;
+
+    private JsonPrimitive json;
+    private LegacyGsonDateTypeAdapter legacyAdapter;
+    private GsonDateTypeAdapter adapter;
+
+    @Setup
+    public void setUp() {
+        json = new JsonPrimitive(value);
+        legacyAdapter = new LegacyGsonDateTypeAdapter();
+        adapter = new GsonDateTypeAdapter();
+    }
+
+    @Benchmark
+    public Date legacy() {
+        return legacyAdapter.deserialize(json, Date.class, null);
+    }
+
+    @Benchmark
+    public Date current() {
+        return adapter.deserialize(json, Date.class, null);
+    }
+
+    // Pull request lists are parsed on several VCS threads at once, which is where the shared lock hurt
+    @Benchmark
+    @Threads(4)
+    public Date legacyContended() {
+        return legacyAdapter.deserialize(json, Date.class, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Date currentContended() {
+        return adapter.deserialize(json, Date.class, null);
+    }
+}
@@ -16,14 +16,14 @@
 
 package com.arcbees.feature;
 
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jetbrains.annotations.NotNull;
 
 import com.arcbees.pullrequest.BuildStatus;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 import jetbrains.buildServer.serverSide.Branch;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
@@ -31,7 +31,6 @@ import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.SBuildFeatureDescriptor;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.serverSide.SRunningBuild;
-import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.ExceptionUtil;
 
@@ -39,14 +38,11 @@ public class BuildCommitBuildListener {
     private static final Logger LOGGER = Logger.getLogger(BuildCommitBuildListener.class.getName());
 
     private final BuildCommitStatusHandler statusHandler;
-    private final ExecutorService executorService;
 
     public BuildCommitBuildListener(
             EventDispatcher<BuildServerListener> listener,
-            ExecutorServices executorServices,
             BuildCommitStatusHandler statusHandler) {
         this.statusHandler = statusHandler;
-        executorService = executorServices.getLowPriorityExecutorService();
 
         listener.addListener(new BuildServerAdapter() {
             @Override
@@ -85,16 +81,21 @@ public class BuildCommitBuildListener {
             final SRunningBuild build,
             final BuildStatus buildStatus,
             final SBuildFeatureDescriptor feature) {
-        executorService.submit(ExceptionUtil.catchAll("BuildCommitStatus Handler", new Runnable() {
+        ExceptionUtil.catchAll("BuildCommitStatus Handler", new Runnable() {
             @Override
             public void run() {
-                try {
-                    statusHandler.handle(build, feature, buildStatus);
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "Error updating commit status.", e);
-                }
+                Futures.addCallback(statusHandler.handle(build, feature, buildStatus), new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object result) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        LOGGER.log(Level.SEVERE, "Error updating commit status.", t);
+                    }
+                });
             }
-        }));
+        }).run();
     }
 
     private SBuildFeatureDescriptor getFeature(SRunningBuild build) {
@@ -16,20 +16,25 @@
 
 package com.arcbees.feature;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.arcbees.pullrequest.BuildStatus;
 import com.arcbees.pullrequest.Constants;
-import com.arcbees.vcs.VcsApi;
+import com.arcbees.vcs.AsyncVcsApi;
 import com.arcbees.vcs.VcsApiFactories;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.model.CommitStatus;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import jetbrains.buildServer.messages.Status;
 import jetbrains.buildServer.serverSide.Branch;
@@ -56,22 +61,25 @@ public class BuildCommitStatusHandler {
         this.webLinks = webLinks;
     }
 
-    public void handle(SRunningBuild build, SBuildFeatureDescriptor feature, BuildStatus buildStatus)
-            throws IOException {
+    public ListenableFuture<List<Void>> handle(SRunningBuild build,
+                                               SBuildFeatureDescriptor feature,
+                                               BuildStatus buildStatus) {
         LOGGER.log(Level.INFO, "Handling build status - Build Status: {0}, Branch: {1}, isSuccessful: {2}",
                 new Object[]{buildStatus, build.getBranch() == null ? null : build.getBranch().getName(),
                         build.getBuildStatus().isSuccessful()});
 
         Branch branch = build.getBranch();
-        if (branch != null) {
-            VcsPropertiesHelper vcsPropertiesHelper =
-                    new VcsPropertiesHelper(feature.getParameters(), vcsConstants);
-            VcsApi vcsApi = vcsApiFactories.create(vcsPropertiesHelper);
+        if (branch == null) {
+            return Futures.immediateFuture(Collections.<Void>emptyList());
+        }
 
-            CommitStatus commitStatus = getCommitStatus(build.getBuildStatus(), buildStatus);
+        VcsPropertiesHelper vcsPropertiesHelper =
+                new VcsPropertiesHelper(feature.getParameters(), vcsConstants);
+        AsyncVcsApi vcsApi = vcsApiFactories.createAsync(vcsPropertiesHelper);
 
-            updateStatus(build, vcsApi, commitStatus);
-        }
+        CommitStatus commitStatus = getCommitStatus(build.getBuildStatus(), buildStatus);
+
+        return updateStatus(build, vcsApi, commitStatus);
     }
 
     private CommitStatus getCommitStatus(Status status, BuildStatus buildStatus) {
@@ -89,21 +97,23 @@ public class BuildCommitStatusHandler {
         }
     }
 
-    private void updateStatus(
+    private ListenableFuture<List<Void>> updateStatus(
             SRunningBuild build,
-            VcsApi vcsApi,
-            CommitStatus commitStatus) throws IOException {
-        try {
-            String statusMessage = getStatusMessage(build, commitStatus);
-
-            List<BuildRevision> changes = getSourceCommitsHashes(build);
-            for (BuildRevision change : changes) {
-                String version = change.getRepositoryVersion().getVersion();
-                vcsApi.updateStatus(version, statusMessage, commitStatus, getTargetUrl(build), build);
-            }
-        } catch (UnsupportedOperationException e) {
-            // Shouldn't happen
+            AsyncVcsApi vcsApi,
+            CommitStatus commitStatus) {
+        String statusMessage = getStatusMessage(build, commitStatus);
+        String targetUrl = getTargetUrl(build);
+
+        List<ListenableFuture<Void>> statusUpdates = new ArrayList<>();
+        for (String version : getSourceCommitsHashes(build)) {
+            ListenableFuture<Void> statusUpdate =
+                    vcsApi.updateStatus(version, statusMessage, commitStatus, targetUrl, build);
+            Futures.addCallback(statusUpdate, new StatusUpdateLogger(version, commitStatus));
+
+            statusUpdates.add(statusUpdate);
         }
+
+        return Futures.successfulAsList(statusUpdates);
     }
 
     private String getStatusMessage(
@@ -131,14 +141,34 @@ public class BuildCommitStatusHandler {
         return webLinks.getViewResultsUrl(build);
     }
 
-    private List<BuildRevision> getSourceCommitsHashes(SRunningBuild build) {
-        List<BuildRevision> result = new ArrayList<>();
+    private Set<String> getSourceCommitsHashes(SRunningBuild build) {
+        Set<String> result = new LinkedHashSet<>();
         for (BuildRevision rev : build.getRevisions()) {
             if ("jetbrains.git".equals(rev.getRoot().getVcsName())) {
-                result.add(rev);
+                result.add(rev.getRepositoryVersion().getVersion());
             }
         }
 
         return result;
     }
+
+    private static class StatusUpdateLogger implements FutureCallback<Void> {
+        private final String version;
+        private final CommitStatus commitStatus;
+
+        StatusUpdateLogger(String version, CommitStatus commitStatus) {
+            this.version = version;
+            this.commitStatus = commitStatus;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            LOGGER.log(Level.FINE, "Published status {0} for commit {1}", new Object[]{commitStatus, version});
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            LOGGER.log(Level.SEVERE, "Error updating status " + commitStatus + " for commit " + version, t);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+final class BranchChain extends AbstractList<String> {
+    private final String branchName;
+    private final BranchChain next;
+    private final int size;
+
+    BranchChain(String branchName, BranchChain next) {
+        this.branchName = branchName;
+        this.next = next;
+        this.size = next == null ? 1 : next.size + 1;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        BranchChain chain = this;
+        for (int i = 0; i < index; i++) {
+            chain = chain.next;
+        }
+
+        return chain.branchName;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private BranchChain current = BranchChain.this;
+
+            @Override
+            public boolean hasNext() {
+                return current != null;
+            }
+
+            @Override
+            public String next() {
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+
+                String name = current.branchName;
+                current = current.next;
+
+                return name;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -16,11 +16,14 @@
 
 package com.arcbees.pullrequest;
 
+import static jetbrains.buildServer.agent.Constants.SECURE_PROPERTY_PREFIX;
+
 public class Constants {
     private static final String BUILD_SUCCESS = "BUILD SUCCESS ";
     private static final String BUILD_FAILURE = "BUILD FAILURE ";
     private static final String BUILD_STARTED = "TeamCity Build Started : ";
     private static final String APPROVE_ON_SUCCESS_KEY = "pullrequest_approve";
+    private static final String WEBHOOK_SECRET_KEY = SECURE_PROPERTY_PREFIX + "pullrequest_webhook_secret";
 
     public String getBuildSuccess() {
         return BUILD_SUCCESS;
@@ -37,4 +40,8 @@ public class Constants {
     public String getApproveOnSuccessKey() {
         return APPROVE_ON_SUCCESS_KEY;
     }
+
+    public String getWebhookSecretKey() {
+        return WEBHOOK_SECRET_KEY;
+    }
 }
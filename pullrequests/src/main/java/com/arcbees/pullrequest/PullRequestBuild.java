@@ -17,25 +17,70 @@
 package com.arcbees.pullrequest;
 
 import com.arcbees.vcs.model.Comment;
-import com.arcbees.vcs.model.Commit;
+import com.arcbees.vcs.model.CommentReference;
 import com.arcbees.vcs.model.PullRequest;
-import com.arcbees.vcs.model.PullRequestTarget;
+import com.arcbees.vcs.util.StateRecord;
+import com.arcbees.vcs.util.StateRecordFormat;
 
 import jetbrains.buildServer.messages.Status;
 
 public class PullRequestBuild {
-    private final PullRequest pullRequest;
+    private static final int RECORD_VERSION = 1;
+    private static final Status[] STATUSES =
+            {Status.NORMAL, Status.WARNING, Status.FAILURE, Status.ERROR, Status.UNKNOWN};
+
+    public static final StateRecordFormat<PullRequestBuild> RECORD_FORMAT = new StateRecordFormat<PullRequestBuild>() {
+        @Override
+        public StateRecord write(PullRequestBuild value) {
+            Comment lastComment = value.getLastComment();
+
+            return new StateRecord(RECORD_VERSION)
+                    .add(value.getPullRequestId())
+                    .add(value.getLastCommitHash())
+                    .add(value.getLastStatus() == null ? null : value.getLastStatus().getText())
+                    .add(lastComment == null ? null : lastComment.getCommentId());
+        }
+
+        @Override
+        public PullRequestBuild read(StateRecord record) {
+            // A record written by another plugin version is treated as missing rather than misread
+            if (record.getVersion() != RECORD_VERSION) {
+                return null;
+            }
+
+            String status = record.getString(2);
+            Long commentId = record.getLong(3);
+
+            return new PullRequestBuild(record.getInteger(0), record.getString(1),
+                    getStatus(status),
+                    commentId == null ? null : new CommentReference(commentId));
+        }
+    };
+
+    private final Integer pullRequestId;
+    private final String lastCommitHash;
     private final Status lastStatus;
     private final Comment lastComment;
+    // Only set on builds read from the legacy JSON format
+    private PullRequest pullRequest;
 
     public PullRequestBuild(PullRequest pullRequest, Status lastStatus, Comment lastComment) {
-        this.pullRequest = pullRequest;
+        this(pullRequest.getId(), pullRequest.getSource().getCommit().getHash(), lastStatus, lastComment);
+    }
+
+    private PullRequestBuild(Integer pullRequestId, String lastCommitHash, Status lastStatus, Comment lastComment) {
+        this.pullRequestId = pullRequestId;
+        this.lastCommitHash = lastCommitHash;
         this.lastStatus = lastStatus;
         this.lastComment = lastComment;
     }
 
-    public PullRequest getPullRequest() {
-        return pullRequest;
+    public Integer getPullRequestId() {
+        if (pullRequestId == null && pullRequest != null) {
+            return pullRequest.getId();
+        }
+
+        return pullRequestId;
     }
 
     public Status getLastStatus() {
@@ -43,13 +88,24 @@ public class PullRequestBuild {
     }
 
     public String getLastCommitHash() {
-        PullRequestTarget source = pullRequest.getSource();
-        Commit commit = source.getCommit();
+        if (lastCommitHash == null && pullRequest != null) {
+            return pullRequest.getSource().getCommit().getHash();
+        }
 
-        return commit.getHash();
+        return lastCommitHash;
     }
 
     public Comment getLastComment() {
         return lastComment;
     }
+
+    private static Status getStatus(String text) {
+        for (Status status : STATUSES) {
+            if (status.getText().equals(text)) {
+                return status;
+            }
+        }
+
+        return text == null ? null : Status.UNKNOWN;
+    }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.arcbees.vcs.model.PullRequest;
+import com.arcbees.vcs.model.PullRequests;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+
+class PullRequestChainGraph {
+    private static final Logger LOGGER = Logger.getLogger(PullRequestChainGraph.class.getName());
+
+    private final Map<String, String> destinations = new HashMap<>();
+    private final Map<String, Set<String>> sources = new HashMap<>();
+    private final Map<String, BranchChain> chains = new HashMap<>();
+    private PullRequestChainIndex index;
+
+    synchronized PullRequestChainIndex parse(PullRequests<? extends PullRequest> pullRequests) {
+        Map<String, String> snapshot = new HashMap<>();
+        ImmutableSetMultimap.Builder<String, Integer> pullRequestIds = ImmutableSetMultimap.builder();
+        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+            snapshot.put(getSourceBranch(pullRequest), getDestinationBranch(pullRequest));
+            pullRequestIds.put(getDestinationBranch(pullRequest), pullRequest.getId());
+        }
+
+        boolean changed = update(snapshot);
+        updateIndex(changed, pullRequestIds.build());
+
+        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+            String sourceBranch = getSourceBranch(pullRequest);
+            String destinationBranch = getDestinationBranch(pullRequest);
+
+            if (destinationBranch.equals(destinations.get(sourceBranch))) {
+                pullRequest.setBranchChain(getChain(sourceBranch));
+            } else {
+                // another pull request from the same source branch owns the graph edge
+                BranchChain tail = destinations.containsKey(destinationBranch) ? getChain(destinationBranch) : null;
+                pullRequest.setBranchChain(new BranchChain(destinationBranch, tail));
+            }
+        }
+
+        return index;
+    }
+
+    private void updateIndex(boolean changed, ImmutableSetMultimap<String, Integer> pullRequestIds) {
+        // an unchanged snapshot keeps the index, and the branches already resolved by other triggers
+        if (!changed && index != null && pullRequestIds.equals(index.getPullRequestIdsByDestination())) {
+            return;
+        }
+
+        ImmutableSetMultimap.Builder<String, String> sourcesByDestination = ImmutableSetMultimap.builder();
+        for (Map.Entry<String, Set<String>> stackedBranches : sources.entrySet()) {
+            sourcesByDestination.putAll(stackedBranches.getKey(), stackedBranches.getValue());
+        }
+
+        index = new PullRequestChainIndex(sourcesByDestination.build(), pullRequestIds);
+    }
+
+    private boolean update(Map<String, String> snapshot) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> edge : destinations.entrySet()) {
+            if (!edge.getValue().equals(snapshot.get(edge.getKey()))) {
+                changed.add(edge.getKey());
+            }
+        }
+        for (Map.Entry<String, String> edge : snapshot.entrySet()) {
+            if (!edge.getValue().equals(destinations.get(edge.getKey()))) {
+                changed.add(edge.getKey());
+            }
+        }
+
+        for (String sourceBranch : changed) {
+            String oldDestination = destinations.remove(sourceBranch);
+            if (oldDestination != null) {
+                removeSource(oldDestination, sourceBranch);
+            }
+
+            String newDestination = snapshot.get(sourceBranch);
+            if (newDestination != null) {
+                destinations.put(sourceBranch, newDestination);
+                addSource(newDestination, sourceBranch);
+            }
+        }
+
+        invalidate(changed);
+
+        return !changed.isEmpty();
+    }
+
+    private void invalidate(Set<String> changed) {
+        Set<String> invalidated = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(changed);
+
+        while (!pending.isEmpty()) {
+            String branch = pending.pop();
+
+            if (invalidated.add(branch)) {
+                chains.remove(branch);
+
+                Set<String> stackedBranches = sources.get(branch);
+                if (stackedBranches != null) {
+                    pending.addAll(stackedBranches);
+                }
+            }
+        }
+    }
+
+    // destinations are followed until a branch repeats, the repeated branch closes the chain
+    private BranchChain getChain(String sourceBranch) {
+        BranchChain chain = chains.get(sourceBranch);
+        if (chain != null) {
+            return chain;
+        }
+
+        List<String> path = Lists.newArrayList();
+        Map<String, Integer> positions = new HashMap<>();
+        String branch = sourceBranch;
+        BranchChain tail;
+        int cycleStart = -1;
+
+        while (true) {
+            positions.put(branch, path.size());
+            path.add(branch);
+
+            String destination = destinations.get(branch);
+            if (!destinations.containsKey(destination)) {
+                tail = new BranchChain(destination, null);
+                break;
+            }
+
+            BranchChain destinationChain = chains.get(destination);
+            if (destinationChain != null) {
+                tail = new BranchChain(destination, destinationChain);
+                break;
+            }
+
+            Integer position = positions.get(destination);
+            if (position != null) {
+                tail = null;
+                cycleStart = position;
+                break;
+            }
+
+            branch = destination;
+        }
+
+        int last = path.size() - 1;
+        if (cycleStart >= 0) {
+            storeCycle(path.subList(cycleStart, path.size()));
+            last = cycleStart - 1;
+        } else {
+            chains.put(path.get(last), tail);
+            last--;
+        }
+
+        for (int i = last; i >= 0; i--) {
+            String destination = path.get(i + 1);
+            chains.put(path.get(i), new BranchChain(destination, chains.get(destination)));
+        }
+
+        return chains.get(sourceBranch);
+    }
+
+    private void storeCycle(List<String> cycle) {
+        LOGGER.log(Level.WARNING, "Pull requests target each other in a cycle: {0}",
+                Joiner.on(" -> ").join(cycle) + " -> " + cycle.get(0));
+
+        int length = cycle.size();
+        for (int i = 0; i < length; i++) {
+            BranchChain chain = null;
+            for (int j = length; j >= 1; j--) {
+                chain = new BranchChain(cycle.get((i + j) % length), chain);
+            }
+
+            chains.put(cycle.get(i), chain);
+        }
+    }
+
+    private void addSource(String destinationBranch, String sourceBranch) {
+        Set<String> stackedBranches = sources.get(destinationBranch);
+        if (stackedBranches == null) {
+            stackedBranches = new HashSet<>();
+            sources.put(destinationBranch, stackedBranches);
+        }
+
+        stackedBranches.add(sourceBranch);
+    }
+
+    private void removeSource(String destinationBranch, String sourceBranch) {
+        Set<String> stackedBranches = sources.get(destinationBranch);
+        if (stackedBranches != null) {
+            stackedBranches.remove(sourceBranch);
+
+            if (stackedBranches.isEmpty()) {
+                sources.remove(destinationBranch);
+            }
+        }
+    }
+
+    private String getSourceBranch(PullRequest pullRequest) {
+        return pullRequest.getSource().getBranch().getName();
+    }
+
+    private String getDestinationBranch(PullRequest pullRequest) {
+        return pullRequest.getDestination().getBranch().getName();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+public class PullRequestChainIndex {
+    private final ImmutableSetMultimap<String, String> sourcesByDestination;
+    private final ImmutableSetMultimap<String, Integer> pullRequestIdsByDestination;
+    private final ConcurrentMap<String, Set<Integer>> pullRequestIdsByBranch = new ConcurrentHashMap<>();
+
+    PullRequestChainIndex(ImmutableSetMultimap<String, String> sourcesByDestination,
+                          ImmutableSetMultimap<String, Integer> pullRequestIdsByDestination) {
+        this.sourcesByDestination = sourcesByDestination;
+        this.pullRequestIdsByDestination = pullRequestIdsByDestination;
+    }
+
+    public Set<Integer> getPullRequestIds(String branchName) {
+        Set<Integer> pullRequestIds = pullRequestIdsByBranch.get(branchName);
+        if (pullRequestIds == null) {
+            pullRequestIds = resolvePullRequestIds(branchName);
+            pullRequestIdsByBranch.putIfAbsent(branchName, pullRequestIds);
+        }
+
+        return pullRequestIds;
+    }
+
+    ImmutableSetMultimap<String, Integer> getPullRequestIdsByDestination() {
+        return pullRequestIdsByDestination;
+    }
+
+    // a pull request has the branch in its chain when it targets the branch or a branch stacked on it
+    private Set<Integer> resolvePullRequestIds(String branchName) {
+        Set<String> stackedBranches = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        stackedBranches.add(branchName);
+        pending.push(branchName);
+
+        while (!pending.isEmpty()) {
+            for (String sourceBranch : sourcesByDestination.get(pending.pop())) {
+                if (stackedBranches.add(sourceBranch)) {
+                    pending.push(sourceBranch);
+                }
+            }
+        }
+
+        ImmutableSet.Builder<Integer> pullRequestIds = ImmutableSet.builder();
+        for (String stackedBranch : stackedBranches) {
+            pullRequestIds.addAll(pullRequestIdsByDestination.get(stackedBranch));
+        }
+
+        return pullRequestIds.build();
+    }
+}
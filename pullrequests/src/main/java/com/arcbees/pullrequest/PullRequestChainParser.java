@@ -16,39 +16,42 @@
 
 package com.arcbees.pullrequest;
 
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.arcbees.vcs.model.PullRequest;
-import com.arcbees.vcs.model.PullRequestTarget;
 import com.arcbees.vcs.model.PullRequests;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 public class PullRequestChainParser {
+    private static final int MAX_REPOSITORIES = 200;
+    private static final int EXPIRY_MINUTES = 60;
+
+    private final Cache<String, PullRequestChainGraph> graphs = CacheBuilder.newBuilder()
+            .maximumSize(MAX_REPOSITORIES)
+            .expireAfterAccess(EXPIRY_MINUTES, TimeUnit.MINUTES)
+            .build();
+
     public void parsePullRequestChains(PullRequests<? extends PullRequest> pullRequests) {
-        Map<String, PullRequest> pullRequestsMap = Maps.newHashMap();
-        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
-            pullRequestsMap.put(pullRequest.getSource().getBranch().getName(), pullRequest);
-        }
+        new PullRequestChainGraph().parse(pullRequests);
+    }
 
-        for (PullRequest pullRequest : pullRequestsMap.values()) {
-            List<String> chain = Lists.newArrayList();
-
-            PullRequestTarget destination = pullRequest.getDestination();
-            String branchName = destination.getBranch().getName();
-            chain.add(branchName);
-            do {
-                PullRequest destinationPullRequest = pullRequestsMap.get(branchName);
-                if (destinationPullRequest != null) {
-                    branchName = destinationPullRequest.getDestination().getBranch().getName();
-                    chain.add(branchName);
-                } else {
-                    break;
-                }
-            } while (pullRequestsMap.containsKey(branchName));
-
-            pullRequest.setBranchChain(chain);
+    public PullRequestChainIndex parsePullRequestChains(String repositoryKey,
+                                                        PullRequests<? extends PullRequest> pullRequests) {
+        return getGraph(repositoryKey).parse(pullRequests);
+    }
+
+    private PullRequestChainGraph getGraph(String repositoryKey) {
+        PullRequestChainGraph graph = graphs.getIfPresent(repositoryKey);
+        if (graph == null) {
+            graph = new PullRequestChainGraph();
+
+            PullRequestChainGraph existing = graphs.asMap().putIfAbsent(repositoryKey, graph);
+            if (existing != null) {
+                graph = existing;
+            }
         }
+
+        return graph;
     }
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+
+class PullRequestIndex {
+    private static final char ENTRY_SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = ' ';
+
+    static class Entry {
+        private final String commitHash;
+        private final long updatedOn;
+
+        Entry(String commitHash, long updatedOn) {
+            this.commitHash = commitHash;
+            this.updatedOn = updatedOn;
+        }
+
+        String getCommitHash() {
+            return commitHash;
+        }
+
+        long getUpdatedOn() {
+            return updatedOn;
+        }
+    }
+
+    private final Map<Integer, Entry> entries;
+    private boolean dirty;
+
+    private PullRequestIndex(Map<Integer, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static PullRequestIndex load(CustomDataStorage dataStorage, String key) {
+        Map<Integer, Entry> entries = new HashMap<>();
+
+        String value = dataStorage.getValue(key);
+        if (!Strings.isNullOrEmpty(value)) {
+            for (String line : Splitter.on(ENTRY_SEPARATOR).omitEmptyStrings().split(value)) {
+                String[] fields = line.split(String.valueOf(FIELD_SEPARATOR));
+
+                if (fields.length == 3) {
+                    try {
+                        entries.put(Integer.parseInt(fields[0]), new Entry(fields[1], Long.parseLong(fields[2])));
+                    } catch (NumberFormatException e) {
+                        // skip the corrupted entry, it is rebuilt from the stored pull request
+                    }
+                }
+            }
+        }
+
+        return new PullRequestIndex(entries);
+    }
+
+    Entry get(int pullRequestId) {
+        return entries.get(pullRequestId);
+    }
+
+    void put(int pullRequestId, String commitHash, Date updatedOn) {
+        entries.put(pullRequestId, new Entry(commitHash, updatedOn == null ? 0 : updatedOn.getTime()));
+        dirty = true;
+    }
+
+    void retain(Collection<Integer> pullRequestIds) {
+        if (entries.keySet().retainAll(pullRequestIds)) {
+            dirty = true;
+        }
+    }
+
+    void flush(CustomDataStorage dataStorage, String key) {
+        if (!dirty) {
+            return;
+        }
+
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+            Joiner.on(FIELD_SEPARATOR).appendTo(value,
+                    entry.getKey(), entry.getValue().commitHash, entry.getValue().updatedOn);
+            value.append(ENTRY_SEPARATOR);
+        }
+
+        dataStorage.putValue(key, value.toString());
+        dirty = false;
+    }
+}
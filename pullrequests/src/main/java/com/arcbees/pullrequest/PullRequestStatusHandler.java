@@ -17,14 +17,12 @@
 package com.arcbees.pullrequest;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.arcbees.vcs.VcsApi;
+import com.arcbees.vcs.AsyncVcsApi;
+import com.arcbees.vcs.PullRequestSnapshots;
 import com.arcbees.vcs.VcsApiFactories;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
@@ -34,9 +32,15 @@ import com.arcbees.vcs.model.CommitStatus;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequestTarget;
 import com.arcbees.vcs.stash.StashApi;
+import com.arcbees.vcs.util.FallbackFutures;
 import com.arcbees.vcs.util.JsonCustomDataStorage;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.messages.Status;
@@ -51,6 +55,7 @@ public class PullRequestStatusHandler {
     private static final Logger LOGGER = Logger.getLogger(PullRequestStatusHandler.class.getName());
 
     private final VcsApiFactories vcsApiFactories;
+    private final PullRequestSnapshots pullRequestSnapshots;
     private final VcsConstants vcsConstants;
     private final Constants constants;
     private final WebLinks webLinks;
@@ -61,48 +66,77 @@ public class PullRequestStatusHandler {
 
 
     public PullRequestStatusHandler(VcsApiFactories vcsApiFactories,
+                                    PullRequestSnapshots pullRequestSnapshots,
                                     VcsConstants vcsConstants,
                                     Constants constants,
                                     WebLinks webLinks) {
         this.vcsApiFactories = vcsApiFactories;
+        this.pullRequestSnapshots = pullRequestSnapshots;
         this.vcsConstants = vcsConstants;
         this.constants = constants;
         this.webLinks = webLinks;
     }
 
-    public void handle(SRunningBuild build, BuildTriggerDescriptor trigger, BuildStatus buildStatus)
-            throws IOException {
-//        LOGGER.log(Level.INFO, "Handling build \\o/ status - Build Status: {0}, Branch: {1}, isSuccessful: {2}",
-//                new Object[]{buildStatus, build.getBranch().getName(), build.getBuildStatus().isSuccessful()});
+    public ListenableFuture<PullRequestBuild> handle(final SRunningBuild build,
+                                                     BuildTriggerDescriptor trigger,
+                                                     BuildStatus buildStatus) {
+        final Branch branch = build.getBranch();
 
-        Branch branch = build.getBranch();
-
-        if (branch != null) {
-
-            SBuildType buildType = build.getBuildType();
-            PullRequestPropertiesHelper pullRequestPropertiesHelper =
-                    new PullRequestPropertiesHelper(trigger.getProperties(), vcsConstants, constants);
-            VcsApi vcsApi = vcsApiFactories.create(pullRequestPropertiesHelper);
+        if (branch == null) {
+            return Futures.immediateFuture(null);
+        }
 
-            PullRequest pullRequest = vcsApi.getPullRequestForBranch(branch.getName());
-            JsonCustomDataStorage<PullRequestBuild> dataStorage = getJsonDataStorage(buildType, trigger);
-            PullRequestBuild pullRequestBuild =
-                    getPullRequestBuild(pullRequestPropertiesHelper, pullRequest, dataStorage);
+        SBuildType buildType = build.getBuildType();
+        final PullRequestPropertiesHelper pullRequestPropertiesHelper =
+                new PullRequestPropertiesHelper(trigger.getProperties(), vcsConstants, constants);
+        final AsyncVcsApi vcsApi = vcsApiFactories.createAsync(pullRequestPropertiesHelper);
+        final JsonCustomDataStorage<PullRequestBuild> dataStorage = getJsonDataStorage(buildType, trigger);
+        final CommitStatus commitStatus = getCommitStatus(build.getBuildStatus(), buildStatus);
+
+        ListenableFuture<PullRequest> pullRequest = vcsApi.submit(new Callable<PullRequest>() {
+            @Override
+            public PullRequest call() throws IOException {
+                return pullRequestSnapshots.getPullRequestForBranch(pullRequestPropertiesHelper, branch.getName());
+            }
+        });
+
+        return Futures.transform(pullRequest, new AsyncFunction<PullRequest, PullRequestBuild>() {
+            @Override
+            public ListenableFuture<PullRequestBuild> apply(PullRequest pullRequest) {
+                if (pullRequest == null) {
+                    LOGGER.log(Level.WARNING, "No pull request found for branch {0}", branch.getName());
+                    return Futures.immediateFuture(null);
+                }
 
-            CommitStatus commitStatus = getCommitStatus(build.getBuildStatus(), buildStatus);
-            Comment comment = updateStatus(build, vcsApi, pullRequest, pullRequestBuild, commitStatus);
+                return updatePullRequest(build, vcsApi, pullRequestPropertiesHelper, dataStorage, pullRequest,
+                        commitStatus);
+            }
+        });
+    }
 
-            Boolean succesKey = pullRequestPropertiesHelper.getApproveOnSuccessKey();
-//            LOGGER.log(Level.INFO, "pullRequestPropertiesHelper.getApproveOnSuccessKey() {0}", succesKey);
-            if (succesKey) {
+    private ListenableFuture<PullRequestBuild> updatePullRequest(final SRunningBuild build,
+                                                                 AsyncVcsApi vcsApi,
+                                                                 final PullRequestPropertiesHelper helper,
+                                                                 final JsonCustomDataStorage<PullRequestBuild> dataStorage,
+                                                                 final PullRequest pullRequest,
+                                                                 CommitStatus commitStatus) {
+        PullRequestBuild pullRequestBuild = getPullRequestBuild(helper, pullRequest, dataStorage);
+        ListenableFuture<Comment> comment = updateStatus(build, vcsApi, pullRequest, pullRequestBuild, commitStatus);
+
+        if (helper.getApproveOnSuccessKey()) {
+            updateApproval(vcsApi, pullRequest, commitStatus);
+        }
 
+        return Futures.transform(comment, new Function<Comment, PullRequestBuild>() {
+            @Override
+            public PullRequestBuild apply(Comment comment) {
+                PullRequestBuild updatedPullRequestBuild =
+                        new PullRequestBuild(pullRequest, build.getBuildStatus(), comment);
+                dataStorage.putValue(getPullRequestKey(helper, pullRequest), updatedPullRequestBuild);
 
-                updateApproval(vcsApi, pullRequest, commitStatus);
+                return updatedPullRequestBuild;
             }
-
-            pullRequestBuild = new PullRequestBuild(pullRequest, build.getBuildStatus(), comment);
-            dataStorage.putValue(getPullRequestKey(pullRequestPropertiesHelper, pullRequest), pullRequestBuild);
-        }
+        });
     }
 
     private CommitStatus getCommitStatus(Status status, BuildStatus buildStatus) {
@@ -120,42 +154,52 @@ public class PullRequestStatusHandler {
         }
     }
 
-    private void updateApproval(VcsApi vcsApi, PullRequest pullRequest, CommitStatus commitStatus) throws IOException {
-        try {
-//            LOGGER.log(Level.INFO, "PULL_REQUEST updateApproval() CommitStatus.SUCCESS.equals(commitStatus) : {0}", CommitStatus.SUCCESS.equals(commitStatus));
-            Map<String, String> logr = new HashMap<>();
-            String approvalStatus = APRST_UNAPPROVED;
-            if (CommitStatus.SUCCESS.equals(commitStatus))
-                approvalStatus = APRST_APPROVED;
-            else if (CommitStatus.PENDING.equals(commitStatus))
-                approvalStatus = APRST_NEEDS_WORK;
-            vcsApi.approvePullRequest(pullRequest.getId(), approvalStatus);
-        } catch (UnsupportedOperationException e) {
-            LOGGER.log(Level.SEVERE, "PULL-REQUEST id {0}\nException {1}",
-                    new Object[]{pullRequest.getId(), e});
-        }
-    }
+    private void updateApproval(AsyncVcsApi vcsApi, final PullRequest pullRequest, CommitStatus commitStatus) {
+        String approvalStatus = APRST_UNAPPROVED;
+        if (CommitStatus.SUCCESS.equals(commitStatus))
+            approvalStatus = APRST_APPROVED;
+        else if (CommitStatus.PENDING.equals(commitStatus))
+            approvalStatus = APRST_NEEDS_WORK;
 
-    private Comment updateStatus(SRunningBuild build,
-                                 VcsApi vcsApi,
-                                 PullRequest pullRequest,
-                                 PullRequestBuild pullRequestBuild,
-                                 CommitStatus commitStatus) throws IOException {
-        try {
-//            LOGGER.log(Level.INFO, "PULL-REQUEST updateStatus");
-            String statusMessage = getStatusMessage(build, commitStatus);
-//            LOGGER.log(Level.INFO, "PULL-REQUEST statusMessage {0}", statusMessage);
-            vcsApi.updateStatus(getSourceCommitHash(pullRequest), statusMessage, commitStatus, getTargetUrl(build),
-                    build);
-
-            return null;
-        } catch (UnsupportedOperationException e) {
-            if (!CommitStatus.PENDING.equals(commitStatus)) {
-                return postOrUpdateComment(build, vcsApi, pullRequest, pullRequestBuild);
-            } else {
-                return null;
+        Futures.addCallback(vcsApi.approvePullRequest(pullRequest.getId(), approvalStatus), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
             }
-        }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof UnsupportedOperationException) {
+                    LOGGER.log(Level.SEVERE, "PULL-REQUEST id {0}\nException {1}",
+                            new Object[]{pullRequest.getId(), t});
+                } else {
+                    LOGGER.log(Level.SEVERE, "Error updating pull request approval.", t);
+                }
+            }
+        });
+    }
+
+    private ListenableFuture<Comment> updateStatus(final SRunningBuild build,
+                                                   final AsyncVcsApi vcsApi,
+                                                   final PullRequest pullRequest,
+                                                   final PullRequestBuild pullRequestBuild,
+                                                   final CommitStatus commitStatus) {
+        String statusMessage = getStatusMessage(build, commitStatus);
+        ListenableFuture<Void> statusUpdate = vcsApi.updateStatus(getSourceCommitHash(pullRequest), statusMessage,
+                commitStatus, getTargetUrl(build), build);
+
+        return FallbackFutures.withFallback(Futures.transform(statusUpdate, Functions.<Comment>constant(null)),
+                new FallbackFutures.Fallback<Comment>() {
+                    @Override
+                    public ListenableFuture<Comment> create(Throwable t) {
+                        if (!(t instanceof UnsupportedOperationException)) {
+                            return Futures.immediateFailedFuture(t);
+                        } else if (!CommitStatus.PENDING.equals(commitStatus)) {
+                            return postOrUpdateComment(build, vcsApi, pullRequest, pullRequestBuild);
+                        } else {
+                            return Futures.immediateFuture(null);
+                        }
+                    }
+                });
     }
 
     private String getStatusMessage(SRunningBuild build,
@@ -178,25 +222,24 @@ public class PullRequestStatusHandler {
         }
     }
 
-    private Comment postOrUpdateComment(SRunningBuild build,
-                                        VcsApi vcsApi,
-                                        PullRequest pullRequest,
-                                        PullRequestBuild pullRequestBuild) throws IOException {
-        Comment comment = pullRequestBuild == null ? null : pullRequestBuild.getLastComment();
+    private ListenableFuture<Comment> postOrUpdateComment(final SRunningBuild build,
+                                                          final AsyncVcsApi vcsApi,
+                                                          final PullRequest pullRequest,
+                                                          PullRequestBuild pullRequestBuild) {
+        Comment oldComment = pullRequestBuild == null ? null : pullRequestBuild.getLastComment();
 
-        if (comment != null) {
-            deleteOldComment(vcsApi, pullRequest.getId(), comment);
+        if (oldComment == null) {
+            return vcsApi.postComment(pullRequest.getId(), getComment(build));
         }
 
-        comment = vcsApi.postComment(pullRequest.getId(), getComment(build));
+        ListenableFuture<Void> deletion = vcsApi.deleteComment(pullRequest.getId(), oldComment.getCommentId());
 
-        return comment;
-    }
-
-    private void deleteOldComment(VcsApi vcsApi,
-                                  int pullRequestId,
-                                  Comment oldComment) throws IOException {
-        vcsApi.deleteComment(pullRequestId, oldComment.getCommentId());
+        return Futures.transform(deletion, new AsyncFunction<Void, Comment>() {
+            @Override
+            public ListenableFuture<Comment> apply(Void input) {
+                return vcsApi.postComment(pullRequest.getId(), getComment(build));
+            }
+        });
     }
 
     private PullRequestBuild getPullRequestBuild(VcsPropertiesHelper vcsPropertiesHelper,
@@ -210,10 +253,10 @@ public class PullRequestStatusHandler {
 
     private JsonCustomDataStorage<PullRequestBuild> getJsonDataStorage(SBuildType buildType,
                                                                        BuildTriggerDescriptor trigger) {
-        String storageId = getStorageId(trigger);
-        CustomDataStorage customDataStorage = buildType.getCustomDataStorage(storageId);
+        CustomDataStorage customDataStorage = TriggerStorageIds.getCustomDataStorage(buildType, trigger);
 
-        return JsonCustomDataStorage.create(customDataStorage, PullRequestBuild.class);
+        return JsonCustomDataStorage.create(customDataStorage, PullRequestBuild.class,
+                PullRequestBuild.RECORD_FORMAT);
     }
 
     private String getPullRequestKey(VcsPropertiesHelper helper, PullRequest pullRequest) {
@@ -224,25 +267,6 @@ public class PullRequestStatusHandler {
         return vcsConstants.getPullRequestKey() + repositoryOwner + "_" + repositoryName + "_" + pullRequest.getId();
     }
 
-    private String getStorageId(BuildTriggerDescriptor triggerDescriptor) {
-        return triggerDescriptor.getBuildTriggerService().getClass().getName() + "_"
-                + getParametersSignature(triggerDescriptor);
-    }
-
-    private String getParametersSignature(BuildTriggerDescriptor triggerDescriptor) {
-        Map<String, String> propsMap = triggerDescriptor.getParameters();
-        List<String> keys = Lists.newArrayList(propsMap.keySet());
-        Collections.sort(keys);
-
-        StringBuilder signature = new StringBuilder();
-        signature.append(triggerDescriptor.getType());
-        for (String key : keys) {
-            signature.append(key).append('=').append(propsMap.get(key));
-        }
-
-        return signature.toString();
-    }
-
     private String getComment(SRunningBuild build) {
         return getComment(build.getBuildStatus()) + "(" + getTargetUrl(build) + ")";
     }
@@ -0,0 +1,369 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.client.methods.HttpPost;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import com.arcbees.vcs.PullRequestSnapshots;
+import com.arcbees.vcs.VcsConstants;
+import com.arcbees.vcs.VcsPropertiesHelper;
+import com.arcbees.vcs.util.VcsRequestExecutor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.ExceptionUtil;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+
+public class PullRequestWebhookController extends BaseController {
+    private static final Logger LOGGER = Logger.getLogger(PullRequestWebhookController.class.getName());
+    private static final String PATH = "/app/pullrequests/webhook";
+    private static final String GITHUB_EVENT_HEADER = "X-GitHub-Event";
+    private static final String BITBUCKET_EVENT_HEADER = "X-Event-Key";
+    private static final String SIGNATURE_256_HEADER = "X-Hub-Signature-256";
+    private static final String SIGNATURE_HEADER = "X-Hub-Signature";
+    private static final String GITHUB_PULL_REQUEST_EVENT = "pull_request";
+    private static final String BITBUCKET_CLOUD_PULL_REQUEST_EVENT = "pullrequest:";
+    private static final String BITBUCKET_SERVER_PULL_REQUEST_EVENT = "pr:";
+    private static final String SHA256_PREFIX = "sha256=";
+    private static final String SHA1_PREFIX = "sha1=";
+    private static final int MAX_PAYLOAD_BYTES = 5 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String THREADS_PROPERTY = "arcbees.pullRequests.webhook.threads";
+    private static final String QUEUE_CAPACITY_PROPERTY = "arcbees.pullRequests.webhook.queueCapacity";
+    private static final String TRIGGER_CACHE_PROPERTY = "arcbees.pullRequests.webhook.triggerCacheSeconds";
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final int DEFAULT_TRIGGER_CACHE_SECONDS = 30;
+
+    private final ProjectManager projectManager;
+    private final PullRequestsTrigger pullRequestsTrigger;
+    private final PullRequestSnapshots pullRequestSnapshots;
+    private final VcsConstants vcsConstants;
+    private final Constants constants;
+    private final VcsRequestExecutor webhookExecutor;
+    private final Supplier<ImmutableListMultimap<String, Trigger>> triggersByRepository;
+
+    public PullRequestWebhookController(SBuildServer server,
+                                        WebControllerManager webControllerManager,
+                                        AuthorizationInterceptor authorizationInterceptor,
+                                        ProjectManager projectManager,
+                                        PullRequestsTrigger pullRequestsTrigger,
+                                        PullRequestSnapshots pullRequestSnapshots,
+                                        VcsConstants vcsConstants,
+                                        Constants constants) {
+        super(server);
+
+        this.projectManager = projectManager;
+        this.pullRequestsTrigger = pullRequestsTrigger;
+        this.pullRequestSnapshots = pullRequestSnapshots;
+        this.vcsConstants = vcsConstants;
+        this.constants = constants;
+
+        // Trigger passes get their own pool so webhook bursts never starve the VCS status and comment calls
+        int threads = TeamCityProperties.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+        int queueCapacity = TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY);
+        webhookExecutor = new VcsRequestExecutor("arcbees-pullrequest-webhook-%d", threads, queueCapacity, threads,
+                queueCapacity);
+
+        // Anonymous requests may only walk the build configurations once per expiry
+        triggersByRepository = Suppliers.memoizeWithExpiration(new Supplier<ImmutableListMultimap<String, Trigger>>() {
+            @Override
+            public ImmutableListMultimap<String, Trigger> get() {
+                return findTriggers();
+            }
+        }, TeamCityProperties.getInteger(TRIGGER_CACHE_PROPERTY, DEFAULT_TRIGGER_CACHE_SECONDS), TimeUnit.SECONDS);
+
+        webControllerManager.registerController(PATH, this);
+        authorizationInterceptor.addPathNotRequiringAuth(PATH);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response)
+            throws Exception {
+        if (!HttpPost.METHOD_NAME.equals(request.getMethod())) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return null;
+        }
+
+        if (!isPullRequestEvent(request)) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            return null;
+        }
+
+        // Unsigned requests and requests that match no trigger get the same answer, so callers can't probe
+        // which repositories are configured
+        String signature = getSignature(request);
+        if (signature == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        byte[] payload = readPayload(request);
+        String repositoryFullName = getRepositoryFullName(payload);
+        if (payload == null || repositoryFullName == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported payload");
+            return null;
+        }
+
+        List<Trigger> triggers = Lists.newArrayList();
+        for (Trigger trigger : triggersByRepository.get().get(getRepositoryKey(repositoryFullName))) {
+            if (isSignatureValid(trigger.webhookSecret, signature, payload)) {
+                triggers.add(trigger);
+            }
+        }
+
+        if (triggers.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        for (Trigger trigger : triggers) {
+            pullRequestSnapshots.invalidate(trigger.vcsPropertiesHelper);
+        }
+        for (Trigger trigger : triggers) {
+            submit(trigger);
+        }
+
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        return null;
+    }
+
+    public void shutdown() throws InterruptedException {
+        webhookExecutor.shutdown();
+    }
+
+    private void submit(final Trigger trigger) {
+        try {
+            webhookExecutor.getExecutorService().submit(ExceptionUtil.catchAll("Pull request webhook", new Runnable() {
+                @Override
+                public void run() {
+                    pullRequestsTrigger.triggerBuild(trigger.buildType, trigger.triggerDescriptor);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            // The next poll picks the change up
+            LOGGER.log(Level.WARNING, "Pull request webhook for " + trigger.buildType.getFullName() + " dropped. "
+                    + e.getMessage());
+        }
+    }
+
+    private ImmutableListMultimap<String, Trigger> findTriggers() {
+        ImmutableListMultimap.Builder<String, Trigger> triggers = ImmutableListMultimap.builder();
+
+        for (SBuildType buildType : projectManager.getAllBuildTypes()) {
+            for (BuildTriggerDescriptor trigger : buildType.getResolvedSettings().getBuildTriggersCollection()) {
+                if (!PullRequestsFeature.NAME.equals(trigger.getType())) {
+                    continue;
+                }
+
+                Map<String, String> properties = trigger.getProperties();
+                String webhookSecret = properties.get(constants.getWebhookSecretKey());
+                if (Strings.isNullOrEmpty(webhookSecret)) {
+                    continue;
+                }
+
+                VcsPropertiesHelper vcsPropertiesHelper = new VcsPropertiesHelper(properties, vcsConstants);
+                String triggerRepository =
+                        vcsPropertiesHelper.getRepositoryOwner() + "/" + vcsPropertiesHelper.getRepositoryName();
+
+                triggers.put(getRepositoryKey(triggerRepository),
+                        new Trigger(buildType, trigger, vcsPropertiesHelper, webhookSecret));
+            }
+        }
+
+        return triggers.build();
+    }
+
+    private String getRepositoryKey(String repositoryFullName) {
+        return repositoryFullName.toLowerCase(Locale.ENGLISH);
+    }
+
+    private boolean isPullRequestEvent(HttpServletRequest request) {
+        String gitHubEvent = request.getHeader(GITHUB_EVENT_HEADER);
+        if (gitHubEvent != null) {
+            return GITHUB_PULL_REQUEST_EVENT.equals(gitHubEvent);
+        }
+
+        String bitbucketEvent = Strings.nullToEmpty(request.getHeader(BITBUCKET_EVENT_HEADER));
+
+        return bitbucketEvent.startsWith(BITBUCKET_CLOUD_PULL_REQUEST_EVENT)
+                || bitbucketEvent.startsWith(BITBUCKET_SERVER_PULL_REQUEST_EVENT);
+    }
+
+    private byte[] readPayload(HttpServletRequest request) throws IOException {
+        if (request.getContentLength() > MAX_PAYLOAD_BYTES) {
+            return null;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        InputStream inputStream = request.getInputStream();
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                payload.write(buffer, 0, read);
+
+                if (payload.size() > MAX_PAYLOAD_BYTES) {
+                    return null;
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return payload.toByteArray();
+    }
+
+    private String getRepositoryFullName(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+
+        try {
+            JsonElement root = new JsonParser().parse(
+                    new InputStreamReader(new ByteArrayInputStream(payload), Charsets.UTF_8));
+            if (!root.isJsonObject()) {
+                return null;
+            }
+
+            JsonObject event = root.getAsJsonObject();
+
+            // Bitbucket Server puts the repository under the pull request's target ref
+            JsonObject serverRepository = getObject(getObject(getObject(event, "pullRequest"), "toRef"), "repository");
+            if (serverRepository != null) {
+                return getString(getObject(serverRepository, "project"), "key") + "/"
+                        + getString(serverRepository, "slug");
+            }
+
+            return getString(getObject(event, "repository"), "full_name");
+        } catch (JsonParseException e) {
+            LOGGER.log(Level.WARNING, "Unable to parse pull request webhook payload", e);
+            return null;
+        }
+    }
+
+    private JsonObject getObject(JsonObject parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+
+        JsonElement element = parent.get(name);
+
+        return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+    }
+
+    private String getString(JsonObject parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+
+        JsonElement element = parent.get(name);
+
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    private String getSignature(HttpServletRequest request) {
+        String signature = request.getHeader(SIGNATURE_256_HEADER);
+
+        return signature != null ? signature : request.getHeader(SIGNATURE_HEADER);
+    }
+
+    private boolean isSignatureValid(String secret, String signature, byte[] payload) {
+        if (Strings.isNullOrEmpty(secret) || signature == null) {
+            return false;
+        }
+
+        String algorithm;
+        String digest;
+        if (signature.startsWith(SHA256_PREFIX)) {
+            algorithm = "HmacSHA256";
+            digest = signature.substring(SHA256_PREFIX.length());
+        } else if (signature.startsWith(SHA1_PREFIX)) {
+            algorithm = "HmacSHA1";
+            digest = signature.substring(SHA1_PREFIX.length());
+        } else {
+            return false;
+        }
+
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), algorithm));
+            byte[] expected = mac.doFinal(payload);
+
+            return MessageDigest.isEqual(expected, Hex.decodeHex(digest.toCharArray()));
+        } catch (GeneralSecurityException | DecoderException e) {
+            return false;
+        }
+    }
+
+    private static class Trigger {
+        private final SBuildType buildType;
+        private final BuildTriggerDescriptor triggerDescriptor;
+        private final VcsPropertiesHelper vcsPropertiesHelper;
+        private final String webhookSecret;
+
+        Trigger(SBuildType buildType, BuildTriggerDescriptor triggerDescriptor,
+                VcsPropertiesHelper vcsPropertiesHelper, String webhookSecret) {
+            this.buildType = buildType;
+            this.triggerDescriptor = triggerDescriptor;
+            this.vcsPropertiesHelper = vcsPropertiesHelper;
+            this.webhookSecret = webhookSecret;
+        }
+    }
+}
@@ -16,20 +16,20 @@
 
 package com.arcbees.pullrequest;
 
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.serverSide.Branch;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
 import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.serverSide.SRunningBuild;
-import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.ExceptionUtil;
 
@@ -37,13 +37,10 @@ public class PullRequestsBuildListener {
     private static final Logger LOGGER = Logger.getLogger(PullRequestsBuildListener.class.getName());
 
     private final PullRequestStatusHandler statusHandler;
-    private final ExecutorService executorService;
 
     public PullRequestsBuildListener(EventDispatcher<BuildServerListener> listener,
-                                     ExecutorServices executorServices,
                                      PullRequestStatusHandler statusHandler) {
         this.statusHandler = statusHandler;
-        executorService = executorServices.getLowPriorityExecutorService();
 
         listener.addListener(new BuildServerAdapter() {
             @Override
@@ -80,16 +77,22 @@ public class PullRequestsBuildListener {
     private void handleBuildStatus(final SRunningBuild build,
                                    final BuildStatus buildStatus,
                                    final BuildTriggerDescriptor trigger) {
-        executorService.submit(ExceptionUtil.catchAll("PullRequest Handler", new Runnable() {
+        ExceptionUtil.catchAll("PullRequest Handler", new Runnable() {
             @Override
             public void run() {
-                try {
-                    statusHandler.handle(build, trigger, buildStatus);
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "Error updating pull request status.", e);
-                }
+                Futures.addCallback(statusHandler.handle(build, trigger, buildStatus),
+                        new FutureCallback<PullRequestBuild>() {
+                            @Override
+                            public void onSuccess(PullRequestBuild result) {
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                LOGGER.log(Level.SEVERE, "Error updating pull request status.", t);
+                            }
+                        });
             }
-        }));
+        }).run();
     }
 
     private BuildTriggerDescriptor getTrigger(SRunningBuild build) {
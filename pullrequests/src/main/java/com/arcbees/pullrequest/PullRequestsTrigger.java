@@ -20,125 +20,237 @@ import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.jetbrains.annotations.NotNull;
 
-import com.arcbees.vcs.VcsApi;
-import com.arcbees.vcs.VcsApiFactories;
+import com.arcbees.vcs.PullRequestSnapshots;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
-import com.arcbees.vcs.model.Comment;
 import com.arcbees.vcs.model.Commit;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequestTarget;
 import com.arcbees.vcs.model.PullRequests;
+import com.arcbees.vcs.util.AdaptivePollingScheduler;
 import com.arcbees.vcs.util.JsonCustomDataStorage;
+import com.arcbees.vcs.util.RateLimitedException;
+import com.arcbees.vcs.util.StateCompactor;
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
 
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.BuildTriggerException;
 import jetbrains.buildServer.buildTriggers.PolledBuildTrigger;
 import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
-import jetbrains.buildServer.messages.Status;
 import jetbrains.buildServer.serverSide.BatchTrigger;
 import jetbrains.buildServer.serverSide.BranchEx;
 import jetbrains.buildServer.serverSide.BuildCustomizer;
 import jetbrains.buildServer.serverSide.BuildCustomizerFactory;
 import jetbrains.buildServer.serverSide.BuildTypeEx;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.TriggerTask;
 import jetbrains.buildServer.vcs.SVcsModification;
 import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
 
 public class PullRequestsTrigger extends PolledBuildTrigger {
-    private final VcsApiFactories vcsApiFactories;
+    private static final Logger LOGGER = Logger.getLogger(PullRequestsTrigger.class.getName());
+    private static final String WEBHOOK_POLL_INTERVAL_PROPERTY = "arcbees.pullRequests.webhook.pollIntervalSeconds";
+    private static final int DEFAULT_WEBHOOK_POLL_INTERVAL = 600;
+    private static final int TRIGGER_LOCK_STRIPES = 64;
+    private static final String INDEX_KEY_PREFIX = "pullrequest_index_";
+    private static final String INDEX_CACHE_SIZE_PROPERTY = "arcbees.pullRequests.index.maxTriggers";
+    private static final int DEFAULT_INDEX_CACHE_SIZE = 500;
+    private static final int INDEX_EXPIRY_MINUTES = 60;
+
+    private final Striped<Lock> triggerLocks = Striped.lock(TRIGGER_LOCK_STRIPES);
+    // Indexes are flushed after every pass, so an evicted one is simply reloaded from the trigger storage
+    private final Cache<String, PullRequestIndex> indexes = CacheBuilder.newBuilder()
+            .maximumSize(TeamCityProperties.getInteger(INDEX_CACHE_SIZE_PROPERTY, DEFAULT_INDEX_CACHE_SIZE))
+            .expireAfterAccess(INDEX_EXPIRY_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private final PullRequestSnapshots pullRequestSnapshots;
     private final BatchTrigger batchTrigger;
     private final VcsConstants vcsConstants;
     private final BuildCustomizerFactory buildCustomizerFactory;
     private final PullRequestChainParser pullRequestChainParser;
+    private final Constants constants;
+    private final AdaptivePollingScheduler pollingScheduler;
+    private final StateCompactor stateCompactor;
 
     public PullRequestsTrigger(
-            VcsApiFactories vcsApiFactories,
+            PullRequestSnapshots pullRequestSnapshots,
             BatchTrigger batchTrigger,
             VcsConstants vcsConstants,
             BuildCustomizerFactory buildCustomizerFactory,
-            PullRequestChainParser pullRequestChainParser) {
-        this.vcsApiFactories = vcsApiFactories;
+            PullRequestChainParser pullRequestChainParser,
+            Constants constants,
+            AdaptivePollingScheduler pollingScheduler,
+            StateCompactor stateCompactor) {
+        this.pullRequestSnapshots = pullRequestSnapshots;
         this.batchTrigger = batchTrigger;
         this.vcsConstants = vcsConstants;
         this.buildCustomizerFactory = buildCustomizerFactory;
         this.pullRequestChainParser = pullRequestChainParser;
+        this.constants = constants;
+        this.pollingScheduler = pollingScheduler;
+        this.stateCompactor = stateCompactor;
     }
 
     @Override
     public void triggerBuild(@NotNull PolledTriggerContext context) throws BuildTriggerException {
+        SBuildType buildType = context.getBuildType();
+        BuildTriggerDescriptor triggerDescriptor = context.getTriggerDescriptor();
+
+        if (pollingScheduler.isPollDue(getScheduleKey(buildType, triggerDescriptor))) {
+            triggerBuild(buildType, triggerDescriptor, context.getCustomDataStorage());
+        }
+    }
+
+    @Override
+    public int getPollInterval(@NotNull PolledTriggerContext context) {
         BuildTriggerDescriptor triggerDescriptor = context.getTriggerDescriptor();
+        String webhookSecret = triggerDescriptor.getProperties().get(constants.getWebhookSecretKey());
+
+        if (Strings.isNullOrEmpty(webhookSecret)) {
+            return pollingScheduler.getPollInterval(getScheduleKey(context.getBuildType(), triggerDescriptor));
+        }
+
+        return TeamCityProperties.getInteger(WEBHOOK_POLL_INTERVAL_PROPERTY, DEFAULT_WEBHOOK_POLL_INTERVAL);
+    }
+
+    public void triggerBuild(SBuildType buildType, BuildTriggerDescriptor triggerDescriptor) {
+        pollingScheduler.recordChange(getScheduleKey(buildType, triggerDescriptor));
+
+        triggerBuild(buildType, triggerDescriptor,
+                TriggerStorageIds.getCustomDataStorage(buildType, triggerDescriptor));
+    }
+
+    private void triggerBuild(SBuildType buildType,
+                              BuildTriggerDescriptor triggerDescriptor,
+                              CustomDataStorage customDataStorage) {
+        Lock lock = triggerLocks.get(buildType.getBuildTypeId() + "_" + triggerDescriptor.getId());
+        lock.lock();
+        try {
+            doTriggerBuild((BuildTypeEx) buildType, triggerDescriptor, customDataStorage);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doTriggerBuild(BuildTypeEx buildType,
+                                BuildTriggerDescriptor triggerDescriptor,
+                                CustomDataStorage customDataStorage) {
         Map<String, String> properties = triggerDescriptor.getProperties();
         VcsPropertiesHelper vcsPropertiesHelper = new VcsPropertiesHelper(properties, vcsConstants);
         String repositoryOwner = vcsPropertiesHelper.getRepositoryOwner();
         String repositoryName = vcsPropertiesHelper.getRepositoryName();
 
-        VcsApi vcsApi = vcsApiFactories.create(vcsPropertiesHelper);
+        String indexKey = getIndexKey(repositoryOwner, repositoryName);
+        PullRequestIndex index = getIndex(buildType, triggerDescriptor, customDataStorage, indexKey);
+
         try {
-            PullRequests<? extends PullRequest> pullRequests = vcsApi.getOpenedPullRequests();
-            pullRequestChainParser.parsePullRequestChains(pullRequests);
+            PullRequests<? extends PullRequest> pullRequests =
+                    pullRequestSnapshots.getOpenedPullRequests(vcsPropertiesHelper);
+            PullRequestChainIndex chainIndex =
+                    pullRequestChainParser.parsePullRequestChains(vcsPropertiesHelper.getRepositoryKey(), pullRequests);
+            Set<Integer> baseBranchPullRequestIds = getBaseBranchPullRequestIds(vcsPropertiesHelper, chainIndex);
 
+            // The stored builds belong to the status handler, the trigger only reads them and records the commits
+            // it handled in the index
             JsonCustomDataStorage<PullRequestBuild> dataStorage =
-                    JsonCustomDataStorage.create(context.getCustomDataStorage(), PullRequestBuild.class);
+                    JsonCustomDataStorage.create(customDataStorage, PullRequestBuild.class,
+                            PullRequestBuild.RECORD_FORMAT);
 
             List<TriggerTask> triggerTasks = Lists.newArrayList();
+            List<Integer> openedPullRequestIds = Lists.newArrayList();
+            List<PullRequest> checkedPullRequests = Lists.newArrayList();
+            Set<String> openedPullRequestKeys = Sets.newHashSet();
             for (PullRequest pullRequest : pullRequests.getPullRequests()) {
-                if (shouldBuildPullRequest(vcsPropertiesHelper, pullRequest)) {
+                openedPullRequestIds.add(pullRequest.getId());
+                openedPullRequestKeys.add(getPullRequestKey(repositoryOwner, repositoryName, pullRequest));
+
+                if (baseBranchPullRequestIds == null || baseBranchPullRequestIds.contains(pullRequest.getId())) {
+                    String commitHash = pullRequest.getSource().getCommit().getHash();
+                    PullRequestIndex.Entry indexEntry = index.get(pullRequest.getId());
+                    if (indexEntry != null && commitHash.equals(indexEntry.getCommitHash())) {
+                        continue;
+                    }
+
                     String pullRequestKey = getPullRequestKey(repositoryOwner, repositoryName, pullRequest);
                     PullRequestBuild pullRequestBuild = dataStorage.getValue(pullRequestKey);
 
-                    String lastTriggeredCommitHash = "";
-                    Status lastStatus = Status.UNKNOWN;
-                    Comment lastComment = null;
+                    String lastBuiltCommitHash = pullRequestBuild == null ? "" : pullRequestBuild.getLastCommitHash();
 
-                    if (pullRequestBuild != null) {
-                        lastTriggeredCommitHash = pullRequestBuild.getLastCommitHash();
-                        lastComment = pullRequestBuild.getLastComment();
-                        lastStatus = pullRequestBuild.getLastStatus();
-                    }
-
-                    boolean buildAdded = addBuildTask(context, triggerTasks, pullRequest, lastTriggeredCommitHash);
-                    if (buildAdded) {
-                        pullRequestBuild = new PullRequestBuild(pullRequest, lastStatus, lastComment);
-                        dataStorage.putValue(pullRequestKey, pullRequestBuild);
-                    }
+                    addBuildTask(buildType, triggerTasks, pullRequest, lastBuiltCommitHash);
+                    checkedPullRequests.add(pullRequest);
                 }
             }
 
             batchTrigger.processTasks(triggerTasks, triggerDescriptor.getTriggerName());
+
+            for (PullRequest pullRequest : checkedPullRequests) {
+                index.put(pullRequest.getId(), pullRequest.getSource().getCommit().getHash(),
+                        pullRequest.getUpdatedOn());
+            }
+            index.retain(openedPullRequestIds);
+
+            String scheduleKey = getScheduleKey(buildType, triggerDescriptor);
+            stateCompactor.scheduleCompaction(scheduleKey, customDataStorage,
+                    getPullRequestKeyPrefix(repositoryOwner, repositoryName), openedPullRequestKeys);
+            pollingScheduler.recordPoll(scheduleKey, getFingerprint(pullRequests));
+        } catch (RateLimitedException e) {
+            String scheduleKey = getScheduleKey(buildType, triggerDescriptor);
+            if (e.isDeferred()) {
+                LOGGER.log(Level.FINE, "Pull request polling of " + buildType.getFullName() + " deferred. "
+                        + e.getMessage());
+                pollingScheduler.recordDeferral(scheduleKey, e.getRetryAt());
+            } else {
+                LOGGER.log(Level.WARNING, "Pull request polling of " + buildType.getFullName() + " rate limited. "
+                        + e.getMessage());
+                pollingScheduler.recordFailure(scheduleKey, e.getRetryAt());
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            LOGGER.log(Level.SEVERE, "Error triggering pull request builds for " + buildType.getFullName(), e);
+            pollingScheduler.recordFailure(getScheduleKey(buildType, triggerDescriptor));
+        } finally {
+            // Builds queued before a failure must not be triggered again on the next poll
+            index.flush(customDataStorage, indexKey);
         }
     }
 
-    private boolean shouldBuildPullRequest(VcsPropertiesHelper vcsPropertiesHelper, PullRequest pullRequest) {
+    private Set<Integer> getBaseBranchPullRequestIds(VcsPropertiesHelper vcsPropertiesHelper,
+                                                     PullRequestChainIndex chainIndex) {
         String baseBranch = vcsPropertiesHelper.getBaseBranch();
 
-        return Strings.isNullOrEmpty(baseBranch) || pullRequest.getBranchChain().contains(baseBranch);
+        return Strings.isNullOrEmpty(baseBranch) ? null : chainIndex.getPullRequestIds(baseBranch);
     }
 
-    private boolean addBuildTask(PolledTriggerContext context, List<TriggerTask> triggerTasks, PullRequest pullRequest,
-            String lastTriggeredCommitHash) {
+    private void addBuildTask(BuildTypeEx buildType, List<TriggerTask> triggerTasks, PullRequest pullRequest,
+            String lastBuiltCommitHash) {
         PullRequestTarget source = pullRequest.getSource();
         Commit lastCommit = source.getCommit();
 
-        boolean added = false;
-        if (!lastCommit.getHash().equals(lastTriggeredCommitHash)) {
-            addBuildTask(context, triggerTasks, pullRequest);
-            added = true;
+        if (!lastCommit.getHash().equals(lastBuiltCommitHash)) {
+            addBuildTask(buildType, triggerTasks, pullRequest);
         }
-
-        return added;
     }
 
-    private void addBuildTask(PolledTriggerContext context, List<TriggerTask> triggerTasks, PullRequest pullRequest) {
+    private void addBuildTask(BuildTypeEx buildType, List<TriggerTask> triggerTasks, PullRequest pullRequest) {
         PullRequestTarget source = pullRequest.getSource();
-        BuildTypeEx buildType = (BuildTypeEx) context.getBuildType();
 
         BuildCustomizer buildCustomizer = buildCustomizerFactory.createBuildCustomizer(buildType, null);
         buildCustomizer.setCleanSources(true);
@@ -148,8 +260,7 @@ public class PullRequestsTrigger extends PolledBuildTrigger {
         buildCustomizer.setParameters(parameters);
 
         BranchEx branch = buildType.getBranchByDisplayName(source.getBranch().getName());
-        SVcsModification lastModification = checkChanges(source.getCommit().getHash(),
-                branch.getDummyBuild().getChanges(SelectPrevBuildPolicy.SINCE_NULL_BUILD, true));
+        SVcsModification lastModification = findModification(branch, source.getCommit().getHash());
 
         buildCustomizer.setDesiredBranchName(branch.getName());
 
@@ -161,17 +272,70 @@ public class PullRequestsTrigger extends PolledBuildTrigger {
         triggerTasks.add(task);
     }
 
-    private SVcsModification checkChanges(String commitHash, List<SVcsModification> changes) {
-        for (SVcsModification sVcsModification : changes) {
-            if (sVcsModification.getVersion().startsWith(commitHash)) {
-                return sVcsModification;
+    private SVcsModification findModification(BranchEx branch, String commitHash) {
+        SBuild dummyBuild = branch.getDummyBuild();
+
+        // A new pull request head is almost always among the changes since the branch's last build, so only
+        // load the whole branch history when it isn't (first build, force push to an older commit)
+        SVcsModification modification =
+                findModification(dummyBuild.getChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, true), commitHash);
+        if (modification == null) {
+            modification =
+                    findModification(dummyBuild.getChanges(SelectPrevBuildPolicy.SINCE_NULL_BUILD, true), commitHash);
+        }
+
+        return modification;
+    }
+
+    private SVcsModification findModification(List<SVcsModification> changes, String commitHash) {
+        for (SVcsModification change : changes) {
+            if (change.getVersion().startsWith(commitHash)) {
+                return change;
             }
         }
 
         return null;
     }
 
+    private PullRequestIndex getIndex(SBuildType buildType,
+                                      BuildTriggerDescriptor triggerDescriptor,
+                                      CustomDataStorage customDataStorage,
+                                      String indexKey) {
+        String cacheKey = buildType.getBuildTypeId() + "_" + TriggerStorageIds.getStorageId(triggerDescriptor);
+
+        PullRequestIndex index = indexes.getIfPresent(cacheKey);
+        if (index == null) {
+            index = PullRequestIndex.load(customDataStorage, indexKey);
+            indexes.put(cacheKey, index);
+        }
+
+        return index;
+    }
+
+    private String getIndexKey(String repositoryOwner, String repositoryName) {
+        return INDEX_KEY_PREFIX + repositoryOwner + "_" + repositoryName;
+    }
+
+    private String getScheduleKey(SBuildType buildType, BuildTriggerDescriptor triggerDescriptor) {
+        return buildType.getBuildTypeId() + "_" + triggerDescriptor.getId();
+    }
+
+    private String getFingerprint(PullRequests<? extends PullRequest> pullRequests) {
+        Hasher hasher = Hashing.md5().newHasher();
+        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+            hasher.putInt(pullRequest.getId())
+                    .putString(pullRequest.getSource().getCommit().getHash(), Charsets.UTF_8)
+                    .putLong(pullRequest.getUpdatedOn() == null ? 0 : pullRequest.getUpdatedOn().getTime());
+        }
+
+        return hasher.hash().toString();
+    }
+
     private String getPullRequestKey(String repositoryOwner, String repositoryName, PullRequest pullRequest) {
-        return vcsConstants.getPullRequestKey() + repositoryOwner + "_" + repositoryName + "_" + pullRequest.getId();
+        return getPullRequestKeyPrefix(repositoryOwner, repositoryName) + pullRequest.getId();
+    }
+
+    private String getPullRequestKeyPrefix(String repositoryOwner, String repositoryName) {
+        return vcsConstants.getPullRequestKey() + repositoryOwner + "_" + repositoryName + "_";
     }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+import jetbrains.buildServer.serverSide.SBuildType;
+
+final class TriggerStorageIds {
+    private TriggerStorageIds() {
+    }
+
+    static CustomDataStorage getCustomDataStorage(SBuildType buildType, BuildTriggerDescriptor triggerDescriptor) {
+        return buildType.getCustomDataStorage(getStorageId(triggerDescriptor));
+    }
+
+    static String getStorageId(BuildTriggerDescriptor triggerDescriptor) {
+        return triggerDescriptor.getBuildTriggerService().getClass().getName() + "_"
+                + getParametersSignature(triggerDescriptor);
+    }
+
+    private static String getParametersSignature(BuildTriggerDescriptor triggerDescriptor) {
+        Map<String, String> propsMap = triggerDescriptor.getParameters();
+        List<String> keys = Lists.newArrayList(propsMap.keySet());
+        Collections.sort(keys);
+
+        StringBuilder signature = new StringBuilder();
+        signature.append(triggerDescriptor.getType());
+        for (String key : keys) {
+            signature.append(key).append('=').append(propsMap.get(key));
+        }
+
+        return signature.toString();
+    }
+}
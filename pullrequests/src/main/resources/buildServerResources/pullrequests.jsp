@@ -49,4 +49,12 @@
             <span class="smallNote">User should approve request on build success</span>
         </td>
     </tr>
+    <tr>
+        <th>Webhook secret:</th>
+        <td>
+            <props:passwordProperty name="${pullKeys.webhookSecretKey}" className="longField"/>
+            <span class="error" id="error_${pullKeys.webhookSecretKey}"></span>
+            <span class="smallNote">Secret of the pull request webhook posted to /app/pullrequests/webhook. When set, polling only reconciles missed events</span>
+        </td>
+    </tr>
 </l:settingsGroup>
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.arcbees.vcs.util.JsonCustomDataStorage;
+
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class PullRequestBuildTest {
+    private static final String KEY = "pullrequest_ArcBees_GWTP_42";
+    private static final String LEGACY_JSON = "{\"pullRequest\":{"
+            + "\"@class\":\"com.arcbees.vcs.github.model.GitHubPullRequest\","
+            + "\"@value\":{\"state\":\"open\",\"number\":42,"
+            + "\"head\":{\"commit\":{\"hash\":\"abc123\"},\"branch\":{\"name\":\"feature\"},\"sha\":\"abc123\"}}},"
+            + "\"lastComment\":{\"@class\":\"com.arcbees.vcs.github.model.GitHubComment\",\"@value\":{\"id\":7}}}";
+
+    private CustomDataStorage customDataStorage;
+    private JsonCustomDataStorage<PullRequestBuild> dataStorage;
+
+    @Before
+    public void setUp() {
+        customDataStorage = mock(CustomDataStorage.class);
+        dataStorage = JsonCustomDataStorage.create(customDataStorage, PullRequestBuild.class,
+                PullRequestBuild.RECORD_FORMAT);
+    }
+
+    @Test
+    public void getValue_legacyJson_readsPullRequestAndComment() {
+        given(customDataStorage.getValue(KEY)).willReturn(LEGACY_JSON);
+
+        PullRequestBuild pullRequestBuild = dataStorage.getValue(KEY);
+
+        assertEquals(Integer.valueOf(42), pullRequestBuild.getPullRequestId());
+        assertEquals("abc123", pullRequestBuild.getLastCommitHash());
+        assertEquals(Long.valueOf(7), pullRequestBuild.getLastComment().getCommentId());
+        assertNull(pullRequestBuild.getLastStatus());
+    }
+
+    @Test
+    public void putValue_legacyJson_migratesToRecord() {
+        given(customDataStorage.getValue(KEY)).willReturn(LEGACY_JSON);
+
+        dataStorage.putValue(KEY, dataStorage.getValue(KEY));
+
+        verify(customDataStorage).putValue(KEY, "@v1|42|abc123||7");
+    }
+
+    @Test
+    public void getValue_migratedRecord_matchesLegacyJson() {
+        given(customDataStorage.getValue(KEY)).willReturn("@v1|42|abc123||7");
+
+        PullRequestBuild pullRequestBuild = dataStorage.getValue(KEY);
+
+        assertEquals(Integer.valueOf(42), pullRequestBuild.getPullRequestId());
+        assertEquals("abc123", pullRequestBuild.getLastCommitHash());
+        assertEquals(Long.valueOf(7), pullRequestBuild.getLastComment().getCommentId());
+    }
+
+    @Test
+    public void getValue_recordWithStatus_roundTripsStatus() {
+        String record = "@v1|42|abc123|" + Status.FAILURE.getText() + "|";
+        given(customDataStorage.getValue(KEY)).willReturn(record);
+
+        PullRequestBuild pullRequestBuild = dataStorage.getValue(KEY);
+        dataStorage.putValue(KEY, pullRequestBuild);
+
+        assertEquals(Status.FAILURE, pullRequestBuild.getLastStatus());
+        assertNull(pullRequestBuild.getLastComment());
+        verify(customDataStorage).putValue(KEY, record);
+    }
+
+    @Test
+    public void getValue_legacyJsonOfUnknownType_returnsNull() {
+        given(customDataStorage.getValue(KEY)).willReturn(LEGACY_JSON.replace("github.model.GitHubPullRequest",
+                "gitlab.model.GitLabPullRequest"));
+
+        assertNull(dataStorage.getValue(KEY));
+    }
+
+    @Test
+    public void getValue_unknownRecordVersion_returnsNull() {
+        given(customDataStorage.getValue(KEY)).willReturn("@v2|42|abc123||7");
+
+        assertNull(dataStorage.getValue(KEY));
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.arcbees.pullrequest;
 
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -23,13 +25,20 @@ import com.arcbees.vcs.bitbucket.model.BitbucketBranch;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequest;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequestTarget;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequests;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 import static java.util.Arrays.asList;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class PullRequestChainParserTest {
+    private static final String REPOSITORY_KEY = "repository";
+    private static final int STACK_SIZE = 5000;
+
     private PullRequestChainParser parser;
 
     @Before
@@ -52,6 +61,83 @@ public class PullRequestChainParserTest {
         assertTrue(secondPr.getBranchChain().containsAll(asList("a", "master")));
     }
 
+    @Test(timeout = 10000)
+    public void parseChain_thousandsOfStackedPullRequests() throws Exception {
+        List<BitbucketPullRequest> stack = createStack(STACK_SIZE);
+
+        parser.parsePullRequestChains(REPOSITORY_KEY, createPullRequests(stack));
+
+        for (int i = 0; i < STACK_SIZE; i++) {
+            List<String> chain = stack.get(i).getBranchChain();
+
+            assertEquals(i + 1, chain.size());
+            assertEquals("master", chain.get(i));
+        }
+        assertEquals("b" + (STACK_SIZE - 2), stack.get(STACK_SIZE - 1).getBranchChain().get(0));
+    }
+
+    @Test(timeout = 10000)
+    public void parseChain_retargetedPullRequest_updatesStackedChains() throws Exception {
+        parser.parsePullRequestChains(REPOSITORY_KEY, createPullRequests(createStack(STACK_SIZE)));
+        List<BitbucketPullRequest> stack = createStack(STACK_SIZE);
+        stack.set(1000, createPr("b1000", "master"));
+
+        parser.parsePullRequestChains(REPOSITORY_KEY, createPullRequests(stack));
+
+        List<String> topChain = stack.get(STACK_SIZE - 1).getBranchChain();
+        assertEquals(STACK_SIZE - 1000, topChain.size());
+        assertTrue(topChain.contains("master"));
+        assertFalse(topChain.contains("b500"));
+        assertEquals(1000, stack.get(999).getBranchChain().size());
+    }
+
+    @Test(timeout = 1000)
+    public void parseChain_cycle_terminates() throws Exception {
+        BitbucketPullRequest firstPr = createPr("a", "b");
+        BitbucketPullRequest secondPr = createPr("b", "a");
+        BitbucketPullRequest stackedPr = createPr("c", "a");
+
+        parser.parsePullRequestChains(createPullRequests(asList(firstPr, secondPr, stackedPr)));
+
+        assertEquals(asList("b", "a"), firstPr.getBranchChain());
+        assertEquals(asList("a", "b"), secondPr.getBranchChain());
+        assertEquals(asList("a", "b", "a"), stackedPr.getBranchChain());
+    }
+
+    @Test
+    public void parseChain_indexesPullRequestsByChainBranch() throws Exception {
+        List<BitbucketPullRequest> stack = createStack(4);
+        stack.add(createPr("feature", "develop"));
+        for (int i = 0; i < stack.size(); i++) {
+            stack.get(i).setId(i + 1);
+        }
+
+        PullRequestChainIndex index = parser.parsePullRequestChains(REPOSITORY_KEY, createPullRequests(stack));
+
+        assertEquals(ImmutableSet.of(1, 2, 3, 4), index.getPullRequestIds("master"));
+        assertEquals(ImmutableSet.of(3, 4), index.getPullRequestIds("b1"));
+        assertEquals(ImmutableSet.of(5), index.getPullRequestIds("develop"));
+        assertTrue(index.getPullRequestIds("release").isEmpty());
+        assertSame(index, parser.parsePullRequestChains(REPOSITORY_KEY, createPullRequests(stack)));
+    }
+
+    private List<BitbucketPullRequest> createStack(int size) {
+        List<BitbucketPullRequest> stack = Lists.newArrayList();
+        stack.add(createPr("b0", "master"));
+        for (int i = 1; i < size; i++) {
+            stack.add(createPr("b" + i, "b" + (i - 1)));
+        }
+
+        return stack;
+    }
+
+    private BitbucketPullRequests createPullRequests(List<BitbucketPullRequest> pullRequests) {
+        BitbucketPullRequests bitbucketPullRequests = new BitbucketPullRequests();
+        bitbucketPullRequests.setPullRequests(Lists.newArrayList(pullRequests));
+
+        return bitbucketPullRequests;
+    }
+
     private BitbucketPullRequest createPr(String sourceBranch, String targetBranch) {
         BitbucketPullRequest pullRequest = new BitbucketPullRequest();
         pullRequest.setSource(createPrTarget(sourceBranch));
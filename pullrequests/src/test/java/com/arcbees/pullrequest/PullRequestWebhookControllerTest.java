@@ -0,0 +1,251 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.pullrequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.arcbees.vcs.PullRequestSnapshots;
+import com.arcbees.vcs.VcsConstants;
+import com.arcbees.vcs.VcsPropertiesHelper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.serverSide.BuildTypeSettings;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PullRequestWebhookControllerTest {
+    private static final String SECRET = "webhook-secret";
+    private static final String GITHUB_PAYLOAD = "{\"action\":\"synchronize\","
+            + "\"repository\":{\"full_name\":\"ArcBees/GWTP\"}}";
+    private static final String BITBUCKET_SERVER_PAYLOAD = "{\"pullRequest\":{\"toRef\":{\"repository\":"
+            + "{\"slug\":\"gwtp\",\"project\":{\"key\":\"ARC\"}}}}}";
+
+    private final VcsConstants vcsConstants = new VcsConstants();
+    private final Constants constants = new Constants();
+
+    private ProjectManager projectManager;
+    private PullRequestSnapshots pullRequestSnapshots;
+    private HttpServletResponse response;
+    private PullRequestWebhookController controller;
+
+    @Before
+    public void setUp() {
+        projectManager = mock(ProjectManager.class);
+        pullRequestSnapshots = mock(PullRequestSnapshots.class);
+        response = mock(HttpServletResponse.class);
+
+        controller = new PullRequestWebhookController(mock(SBuildServer.class), mock(WebControllerManager.class),
+                mock(AuthorizationInterceptor.class), projectManager, mock(PullRequestsTrigger.class),
+                pullRequestSnapshots, vcsConstants, constants);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        controller.shutdown();
+    }
+
+    @Test
+    public void doHandle_sha256Signature_acceptsMatchingTrigger() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+
+        controller.doHandle(createGitHubRequest("sha256=" + sign("HmacSHA256", SECRET, GITHUB_PAYLOAD)), response);
+
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+        verify(pullRequestSnapshots).invalidate(any(VcsPropertiesHelper.class));
+    }
+
+    @Test
+    public void doHandle_sha1Signature_acceptsMatchingTrigger() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+        HttpServletRequest request = createRequest("X-GitHub-Event", "pull_request",
+                "X-Hub-Signature", "sha1=" + sign("HmacSHA1", SECRET, GITHUB_PAYLOAD), GITHUB_PAYLOAD);
+
+        controller.doHandle(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Test
+    public void doHandle_wrongSecret_isForbidden() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+
+        controller.doHandle(createGitHubRequest("sha256=" + sign("HmacSHA256", "other", GITHUB_PAYLOAD)), response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        verify(pullRequestSnapshots, never()).invalidate(any(VcsPropertiesHelper.class));
+    }
+
+    @Test
+    public void doHandle_unknownDigestPrefix_isForbidden() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+
+        controller.doHandle(createGitHubRequest("md5=" + sign("HmacSHA256", SECRET, GITHUB_PAYLOAD)), response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+    }
+
+    @Test
+    public void doHandle_missingSignature_isForbiddenWithoutLookingUpTriggers() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+
+        controller.doHandle(createGitHubRequest(null), response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        verify(projectManager, never()).getAllBuildTypes();
+    }
+
+    @Test
+    public void doHandle_unknownRepository_answersLikeBadSignature() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "Other", SECRET));
+
+        controller.doHandle(createGitHubRequest("sha256=" + sign("HmacSHA256", SECRET, GITHUB_PAYLOAD)), response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        verify(pullRequestSnapshots, never()).invalidate(any(VcsPropertiesHelper.class));
+    }
+
+    @Test
+    public void doHandle_repositoryName_matchesIgnoringCase() throws Exception {
+        givenTriggers(createTrigger("arcbees", "gwtp", SECRET));
+
+        controller.doHandle(createGitHubRequest("sha256=" + sign("HmacSHA256", SECRET, GITHUB_PAYLOAD)), response);
+
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Test
+    public void doHandle_bitbucketServerPayload_matchesProjectAndSlug() throws Exception {
+        givenTriggers(createTrigger("ARC", "gwtp", SECRET));
+        HttpServletRequest request = createRequest("X-Event-Key", "pr:from_ref_updated", "X-Hub-Signature",
+                "sha256=" + sign("HmacSHA256", SECRET, BITBUCKET_SERVER_PAYLOAD), BITBUCKET_SERVER_PAYLOAD);
+
+        controller.doHandle(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Test
+    public void doHandle_sharedRepository_onlyAcceptsTriggersWithMatchingSecret() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET), createTrigger("ArcBees", "GWTP", "other"),
+                createTrigger("ArcBees", "GWTP", null));
+
+        controller.doHandle(createGitHubRequest("sha256=" + sign("HmacSHA256", SECRET, GITHUB_PAYLOAD)), response);
+
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+        verify(pullRequestSnapshots, times(1)).invalidate(any(VcsPropertiesHelper.class));
+    }
+
+    @Test
+    public void doHandle_repeatedRequests_reuseTriggerLookup() throws Exception {
+        givenTriggers(createTrigger("ArcBees", "GWTP", SECRET));
+        String signature = "sha256=" + sign("HmacSHA256", "other", GITHUB_PAYLOAD);
+
+        controller.doHandle(createGitHubRequest(signature), response);
+        controller.doHandle(createGitHubRequest(signature), response);
+
+        verify(projectManager, times(1)).getAllBuildTypes();
+    }
+
+    @Test
+    public void doHandle_otherEvent_isIgnored() throws Exception {
+        HttpServletRequest request = createRequest("X-GitHub-Event", "push", "X-Hub-Signature-256", null, "{}");
+
+        controller.doHandle(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(projectManager, never()).getAllBuildTypes();
+    }
+
+    private void givenTriggers(BuildTriggerDescriptor... triggers) {
+        BuildTypeSettings settings = mock(BuildTypeSettings.class);
+        given(settings.getBuildTriggersCollection()).willReturn(Lists.newArrayList(triggers));
+        SBuildType buildType = mock(SBuildType.class);
+        given(buildType.getResolvedSettings()).willReturn(settings);
+
+        given(projectManager.getAllBuildTypes()).willReturn(Lists.newArrayList(buildType));
+    }
+
+    private BuildTriggerDescriptor createTrigger(String repositoryOwner, String repositoryName, String secret) {
+        ImmutableMap.Builder<String, String> properties = ImmutableMap.<String, String>builder()
+                .put(vcsConstants.getRepositoryOwnerKey(), repositoryOwner)
+                .put(vcsConstants.getRepositoryNameKey(), repositoryName);
+        if (secret != null) {
+            properties.put(constants.getWebhookSecretKey(), secret);
+        }
+
+        BuildTriggerDescriptor trigger = mock(BuildTriggerDescriptor.class);
+        given(trigger.getType()).willReturn(PullRequestsFeature.NAME);
+        given(trigger.getProperties()).willReturn(properties.build());
+
+        return trigger;
+    }
+
+    private HttpServletRequest createGitHubRequest(String signature) throws IOException {
+        return createRequest("X-GitHub-Event", "pull_request", "X-Hub-Signature-256", signature, GITHUB_PAYLOAD);
+    }
+
+    private HttpServletRequest createRequest(String eventHeader, String event, String signatureHeader,
+                                             String signature, String payload) throws IOException {
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(payload.getBytes(Charsets.UTF_8));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        given(request.getMethod()).willReturn("POST");
+        given(request.getHeader(eventHeader)).willReturn(event);
+        given(request.getHeader(signatureHeader)).willReturn(signature);
+        given(request.getContentLength()).willReturn(payload.length());
+        given(request.getInputStream()).willReturn(new ServletInputStream() {
+            @Override
+            public int read() {
+                return inputStream.read();
+            }
+        });
+
+        return request;
+    }
+
+    private String sign(String algorithm, String secret, String payload) throws Exception {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), algorithm));
+
+        return new String(Hex.encodeHex(mac.doFinal(payload.getBytes(Charsets.UTF_8))));
+    }
+}
@@ -23,22 +23,19 @@ import org.junit.Test;
 
 import com.arcbees.pullrequest.BuildStatus;
 import com.arcbees.pullrequest.Constants;
-import com.arcbees.pullrequest.PullRequestBuild;
 import com.arcbees.pullrequest.PullRequestStatusHandler;
+import com.arcbees.vcs.ExecutorAsyncVcsApi;
+import com.arcbees.vcs.PullRequestSnapshots;
 import com.arcbees.vcs.VcsApi;
 import com.arcbees.vcs.VcsApiFactories;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
-import com.arcbees.vcs.bitbucket.model.BitbucketComment;
 import com.arcbees.vcs.bitbucket.model.BitbucketCommit;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequest;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequestTarget;
-import com.arcbees.vcs.model.Comment;
 import com.arcbees.vcs.model.CommitStatus;
 import com.arcbees.vcs.model.PullRequest;
-import com.arcbees.vcs.util.PolymorphicTypeAdapter;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import jetbrains.buildServer.StatusDescriptor;
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
@@ -63,6 +60,13 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 public class PullRequestStatusHandlerTest {
+    // A build stored by an older plugin version, with the comment of the previous build
+    private static final String LEGACY_BUILD_JSON = "{\"pullRequest\":{"
+            + "\"@class\":\"com.arcbees.vcs.bitbucket.model.BitbucketPullRequest\","
+            + "\"@value\":{\"id\":1,\"source\":{\"commit\":{}}}},"
+            + "\"lastComment\":{\"@class\":\"com.arcbees.vcs.bitbucket.model.BitbucketComment\","
+            + "\"@value\":{\"comment_id\":7}}}";
+
     private PullRequestStatusHandler commentHandler;
     private VcsApi vcsApi;
     private BuildTriggerDescriptor trigger;
@@ -74,9 +78,11 @@ public class PullRequestStatusHandlerTest {
         VcsApiFactories apiFactory = mock(VcsApiFactories.class);
         vcsApi = mock(VcsApi.class);
         given(apiFactory.create(any(VcsPropertiesHelper.class))).willReturn(vcsApi);
+        given(apiFactory.createAsync(any(VcsPropertiesHelper.class)))
+                .willReturn(new ExecutorAsyncVcsApi(vcsApi, MoreExecutors.sameThreadExecutor()));
 
-        commentHandler = new PullRequestStatusHandler(apiFactory, new VcsConstants(), new Constants(),
-                mock(WebLinks.class));
+        commentHandler = new PullRequestStatusHandler(apiFactory, new PullRequestSnapshots(apiFactory, 0),
+                new VcsConstants(), new Constants(), mock(WebLinks.class));
 
         trigger = mock(BuildTriggerDescriptor.class);
 
@@ -110,10 +116,7 @@ public class PullRequestStatusHandlerTest {
         doThrow(UnsupportedOperationException.class).when(vcsApi)
                 .updateStatus(anyString(), anyString(), any(CommitStatus.class), anyString(), eq(build));
         given(build.getBuildStatus()).willReturn(Status.NORMAL);
-        PullRequestBuild pullRequestBuild =
-                new PullRequestBuild(createPullRequest(), Status.NORMAL, new BitbucketComment());
-
-        given(dataStorage.getValue(anyString())).willReturn(getGson().toJson(pullRequestBuild));
+        given(dataStorage.getValue(anyString())).willReturn(LEGACY_BUILD_JSON);
 
         commentHandler.handle(build, trigger, BuildStatus.FINISHED);
 
@@ -126,10 +129,7 @@ public class PullRequestStatusHandlerTest {
         doThrow(UnsupportedOperationException.class).when(vcsApi)
                 .updateStatus(anyString(), anyString(), any(CommitStatus.class), anyString(), eq(build));
         given(build.getBuildStatus()).willReturn(Status.FAILURE);
-        PullRequestBuild pullRequestBuild =
-                new PullRequestBuild(createPullRequest(), Status.NORMAL, new BitbucketComment());
-
-        given(dataStorage.getValue(anyString())).willReturn(getGson().toJson(pullRequestBuild));
+        given(dataStorage.getValue(anyString())).willReturn(LEGACY_BUILD_JSON);
 
         commentHandler.handle(build, trigger, BuildStatus.FINISHED);
 
@@ -142,10 +142,7 @@ public class PullRequestStatusHandlerTest {
         doThrow(UnsupportedOperationException.class).when(vcsApi)
                 .updateStatus(anyString(), anyString(), any(CommitStatus.class), anyString(), eq(build));
         given(build.getBuildStatus()).willReturn(Status.FAILURE);
-        PullRequestBuild pullRequestBuild =
-                new PullRequestBuild(createPullRequest(), Status.FAILURE, new BitbucketComment());
-
-        given(dataStorage.getValue(anyString())).willReturn(getGson().toJson(pullRequestBuild));
+        given(dataStorage.getValue(anyString())).willReturn(LEGACY_BUILD_JSON);
 
         commentHandler.handle(build, trigger, BuildStatus.FINISHED);
 
@@ -163,11 +160,4 @@ public class PullRequestStatusHandlerTest {
 
         return pullRequest;
     }
-
-    private Gson getGson() {
-        return new GsonBuilder()
-                .registerTypeAdapter(PullRequest.class, new PolymorphicTypeAdapter<PullRequest>())
-                .registerTypeAdapter(Comment.class, new PolymorphicTypeAdapter<Comment>())
-                .create();
-    }
 }
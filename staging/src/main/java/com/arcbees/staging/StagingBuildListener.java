@@ -16,20 +16,21 @@
 
 package com.arcbees.staging;
 
-import java.io.IOException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.arcbees.vcs.util.VcsRequestExecutor;
+
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.serverSide.Branch;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
 import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.serverSide.SRunningBuild;
-import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.ExceptionUtil;
 
@@ -40,10 +41,10 @@ public class StagingBuildListener {
     private final ExecutorService executorService;
 
     public StagingBuildListener(EventDispatcher<BuildServerListener> listener,
-                                ExecutorServices executorServices,
+                                VcsRequestExecutor vcsRequestExecutor,
                                 TomcatDeployHandler deployHandler) {
         this.deployHandler = deployHandler;
-        executorService = executorServices.getLowPriorityExecutorService();
+        executorService = vcsRequestExecutor.getExecutorService();
 
         listener.addListener(new BuildServerAdapter() {
             @Override
@@ -74,15 +75,15 @@ public class StagingBuildListener {
     }
 
     private void handleDeploy(final SRunningBuild build, final BuildTriggerDescriptor trigger) {
-        executorService.submit(ExceptionUtil.catchAll("Tomcat7 Deploy", new Runnable() {
-            @Override
-            public void run() {
-                try {
+        try {
+            executorService.submit(ExceptionUtil.catchAll("Tomcat7 Deploy", new Runnable() {
+                @Override
+                public void run() {
                     deployHandler.handle(build, trigger);
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "Error getting pull request infos", e);
                 }
-            }
-        }));
+            }));
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Deploy of build " + build.getBuildId() + " rejected", e);
+        }
     }
 }
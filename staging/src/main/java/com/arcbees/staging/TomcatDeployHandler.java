@@ -18,28 +18,34 @@ package com.arcbees.staging;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.http.HttpStatus;
-import org.apache.tomcat.maven.common.deployer.TomcatManager;
-import org.apache.tomcat.maven.common.deployer.TomcatManagerException;
-import org.apache.tomcat.maven.common.deployer.TomcatManagerResponse;
 import org.jetbrains.annotations.NotNull;
 
-import com.arcbees.vcs.VcsApi;
+import com.arcbees.staging.TomcatDeployPipeline.DeployOutcome;
+import com.arcbees.staging.TomcatDeployPipeline.WarDeployment;
+import com.arcbees.vcs.AsyncVcsApi;
+import com.arcbees.vcs.PullRequestSnapshots;
 import com.arcbees.vcs.VcsApiFactories;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.model.Comment;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.util.JsonCustomDataStorage;
+import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.serverSide.Branch;
@@ -53,118 +59,217 @@ import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
 public class TomcatDeployHandler {
     private static final Logger LOGGER = Logger.getLogger(TomcatDeployHandler.class.getName());
     private static final String COMMENT_WEBAPP = "WebApp URL : ";
+    private static final String WAR_EXTENSION = ".war";
 
     private final VcsApiFactories vcsApiFactories;
-    private final TomcatManagerFactory tomcatManagerFactory;
+    private final PullRequestSnapshots pullRequestSnapshots;
+    private final TomcatDeployPipeline deployPipeline;
     private final VcsConstants vcsConstants;
     private final Constants constants;
 
     public TomcatDeployHandler(VcsApiFactories vcsApiFactories,
-                               TomcatManagerFactory tomcatManagerFactory,
+                               PullRequestSnapshots pullRequestSnapshots,
+                               TomcatDeployPipeline deployPipeline,
                                VcsConstants vcsConstants,
                                Constants constants) {
         this.vcsApiFactories = vcsApiFactories;
-        this.tomcatManagerFactory = tomcatManagerFactory;
+        this.pullRequestSnapshots = pullRequestSnapshots;
+        this.deployPipeline = deployPipeline;
         this.vcsConstants = vcsConstants;
         this.constants = constants;
     }
 
-    public void handle(SRunningBuild build, BuildTriggerDescriptor trigger) throws IOException {
-        Branch branch = build.getBranch();
+    public void handle(final SRunningBuild build, final BuildTriggerDescriptor trigger) {
+        final Branch branch = build.getBranch();
         if (branch != null && build.getBuildStatus().isSuccessful()) {
-            SBuildType buildType = build.getBuildType();
-
-            VcsPropertiesHelper vcsPropertiesHelper = new VcsPropertiesHelper(trigger.getProperties(), vcsConstants);
-            VcsApi vcsApi = vcsApiFactories.create(vcsPropertiesHelper);
-
-            PullRequest pullRequest = vcsApi.getPullRequestForBranch(branch.getName());
-
-            JsonCustomDataStorage<TomcatStagingDeploy> dataStorage = getJsonDataStorage(buildType, trigger);
-            StagingPropertiesHelper stagingPropertiesHelper =
-                    new StagingPropertiesHelper(trigger.getProperties(), constants);
-
-            TomcatStagingDeploy stagingDeploy =
-                    getTomcatStagingDeploy(vcsPropertiesHelper, pullRequest, dataStorage);
-
-            deploy(build, stagingPropertiesHelper, stagingDeploy);
-            postComment(vcsApi, pullRequest, stagingDeploy);
+            final VcsPropertiesHelper vcsPropertiesHelper =
+                    new VcsPropertiesHelper(trigger.getProperties(), vcsConstants);
+            final AsyncVcsApi vcsApi = vcsApiFactories.createAsync(vcsPropertiesHelper);
+
+            ListenableFuture<PullRequest> pullRequest = vcsApi.submit(new Callable<PullRequest>() {
+                @Override
+                public PullRequest call() throws IOException {
+                    return pullRequestSnapshots.getPullRequestForBranch(vcsPropertiesHelper, branch.getName());
+                }
+            });
+
+            // Walking the artifacts can be slow, keep it off the VCS executor
+            Futures.addCallback(pullRequest, new FutureCallback<PullRequest>() {
+                @Override
+                public void onSuccess(PullRequest pullRequest) {
+                    if (pullRequest == null) {
+                        LOGGER.log(Level.WARNING, "No pull request found for branch {0}", branch.getName());
+                        return;
+                    }
+
+                    deployPullRequest(build, trigger, vcsPropertiesHelper, vcsApi, pullRequest);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    LOGGER.log(Level.SEVERE, "Error getting pull request infos", t);
+                }
+            }, deployPipeline.getExecutor());
+        }
+    }
 
-            dataStorage.putValue(getPullRequestKey(vcsPropertiesHelper, pullRequest), stagingDeploy);
+    private void deployPullRequest(SRunningBuild build,
+                                   BuildTriggerDescriptor trigger,
+                                   VcsPropertiesHelper vcsPropertiesHelper,
+                                   AsyncVcsApi vcsApi,
+                                   PullRequest pullRequest) {
+        JsonCustomDataStorage<TomcatStagingDeploy> dataStorage = getJsonDataStorage(build.getBuildType(), trigger);
+        StagingPropertiesHelper stagingPropertiesHelper =
+                new StagingPropertiesHelper(trigger.getProperties(), constants);
+
+        TomcatStagingDeploy stagingDeploy = getTomcatStagingDeploy(vcsPropertiesHelper, pullRequest, dataStorage);
+        String pullRequestKey = getPullRequestKey(vcsPropertiesHelper, pullRequest);
+
+        List<WarDeployment> deployments = collectWars(build, stagingPropertiesHelper.getBaseContext());
+        if (deployments.isEmpty()) {
+            LOGGER.warning("No WAR artifact to deploy for build " + build.getBuildId());
+            stagingDeploy.setDeployed(false);
+            dataStorage.putValue(pullRequestKey, stagingDeploy);
+            return;
         }
+
+        deploy(stagingPropertiesHelper, deployments, vcsApi, pullRequest, stagingDeploy, dataStorage, pullRequestKey);
     }
 
-    private void deploy(final SRunningBuild build,
-                        StagingPropertiesHelper stagingPropertiesHelper,
-                        final TomcatStagingDeploy stagingDeploy) throws IOException {
-        final String baseContext = stagingPropertiesHelper.getBaseContext();
-        final TomcatManager tomcatManager = createTomcatManager(stagingPropertiesHelper);
-
-        try {
-            build.getArtifacts(BuildArtifactsViewMode.VIEW_DEFAULT)
-                    .iterateArtifacts(new BuildArtifacts.BuildArtifactsProcessor() {
-                        @NotNull
-                        @Override
-                        public Continuation processBuildArtifact(@NotNull BuildArtifact buildArtifact) {
-                            if (buildArtifact.getName().endsWith(".war")) {
-                                try {
-                                    deployArtifact(buildArtifact, build, baseContext, tomcatManager, stagingDeploy);
-                                } catch (TomcatManagerException | IOException e) {
-                                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
-                                    throw new RuntimeException(e);
-                                }
-                            }
-                            return Continuation.CONTINUE;
+    private void deploy(StagingPropertiesHelper stagingPropertiesHelper,
+                        List<WarDeployment> deployments,
+                        final AsyncVcsApi vcsApi,
+                        final PullRequest pullRequest,
+                        final TomcatStagingDeploy stagingDeploy,
+                        final JsonCustomDataStorage<TomcatStagingDeploy> dataStorage,
+                        final String pullRequestKey) {
+        final List<ListenableFuture<DeployOutcome>> outcomes =
+                deployPipeline.deploy(stagingPropertiesHelper, deployments);
+
+        // The comment only links the primary webapp, so it goes out without waiting for the other modules
+        ListenableFuture<Comment> comment = Futures.transform(outcomes.get(0),
+                new AsyncFunction<DeployOutcome, Comment>() {
+                    @Override
+                    public ListenableFuture<Comment> apply(DeployOutcome outcome) {
+                        stagingDeploy.setDeployed(outcome.isDeployed());
+                        if (outcome.isDeployed()) {
+                            stagingDeploy.setWebPath(outcome.getWebPath());
                         }
-                    });
 
-            stagingDeploy.setDeployed(true);
-        } catch (Exception e) {
-            stagingDeploy.setDeployed(false);
-            LOGGER.log(Level.SEVERE, e.getMessage(), e);
-        }
+                        return postComment(vcsApi, pullRequest, stagingDeploy);
+                    }
+                });
+        Futures.addCallback(comment, new FutureCallback<Comment>() {
+            @Override
+            public void onSuccess(Comment result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.log(Level.SEVERE, "Error posting staging comment on pull request " + pullRequest.getId(), t);
+            }
+        });
+
+        List<ListenableFuture<?>> pending = Lists.<ListenableFuture<?>>newArrayList(outcomes);
+        pending.add(comment);
+
+        Futures.addCallback(Futures.successfulAsList(pending), new FutureCallback<List<Object>>() {
+            @Override
+            public void onSuccess(List<Object> results) {
+                // Contexts of earlier builds stay listed, a module dropped from this build is still deployed
+                Set<String> moduleWebPaths = Sets.newLinkedHashSet(stagingDeploy.getModuleWebPaths());
+                for (int i = 1; i < outcomes.size(); i++) {
+                    DeployOutcome outcome = (DeployOutcome) results.get(i);
+
+                    if (outcome != null && outcome.isDeployed()) {
+                        moduleWebPaths.add(outcome.getWebPath());
+                    }
+                }
+                stagingDeploy.setModuleWebPaths(Lists.newArrayList(moduleWebPaths));
+
+                // Live modules must be undeployed with the pull request even when the primary webapp failed
+                if (!moduleWebPaths.isEmpty()) {
+                    stagingDeploy.setDeployed(true);
+                }
+
+                dataStorage.putValue(pullRequestKey, stagingDeploy);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.log(Level.SEVERE, "Error recording deploy of pull request " + pullRequest.getId(), t);
+            }
+        });
     }
 
-    private void deployArtifact(BuildArtifact buildArtifact,
-                                SRunningBuild build,
-                                String baseContext,
-                                TomcatManager tomcatManager,
-                                TomcatStagingDeploy stagingDeploy)
-            throws TomcatManagerException, IOException {
+    private List<WarDeployment> collectWars(final SRunningBuild build, String baseContext) {
         assert build.getBranch() != null;
 
-        File artifact = new File(build.getArtifactsDirectory(), buildArtifact.getRelativePath());
+        final List<BuildArtifact> wars = Lists.newArrayList();
+        build.getArtifacts(BuildArtifactsViewMode.VIEW_DEFAULT)
+                .iterateArtifacts(new BuildArtifacts.BuildArtifactsProcessor() {
+                    @NotNull
+                    @Override
+                    public Continuation processBuildArtifact(@NotNull BuildArtifact buildArtifact) {
+                        if (buildArtifact.getName().endsWith(WAR_EXTENSION)) {
+                            wars.add(buildArtifact);
+                        }
+                        return Continuation.CONTINUE;
+                    }
+                });
+
+        Collections.sort(wars, new Comparator<BuildArtifact>() {
+            @Override
+            public int compare(BuildArtifact first, BuildArtifact second) {
+                return first.getRelativePath().compareTo(second.getRelativePath());
+            }
+        });
+
+        // The first WAR keeps the branch context, every other one is nested under it by artifact name. WARs with
+        // the same name get a numbered suffix, the sort by relative path keeps the numbering stable across builds
         String path = baseContext + "/" + build.getBranch().getName();
+        List<WarDeployment> deployments = Lists.newArrayList();
+        Set<String> moduleNames = Sets.newHashSet();
+        for (BuildArtifact war : wars) {
+            File artifact = new File(build.getArtifactsDirectory(), war.getRelativePath());
+            String contextPath = deployments.isEmpty() ? path : path + "/" + getModuleName(war, moduleNames);
 
-        String tomcatBasePath = UrlUtils.extractBaseUrl(tomcatManager.getURL());
-        stagingDeploy.setWebPath(tomcatBasePath + path);
-
-        TomcatManagerResponse response = tomcatManager.deploy(path, artifact, true, path, artifact.length());
-
-        if (HttpStatus.SC_OK != response.getStatusCode()) {
-            throw new TomcatManagerException(response.getReasonPhrase());
+            deployments.add(new WarDeployment(war.getRelativePath(), artifact, contextPath));
         }
+
+        return deployments;
     }
 
-    private TomcatManager createTomcatManager(StagingPropertiesHelper propertiesHelper) {
-        try {
-            return tomcatManagerFactory.create(propertiesHelper);
-        } catch (MalformedURLException | URISyntaxException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage(), e);
-            throw new RuntimeException(e);
+    private String getModuleName(BuildArtifact war, Set<String> moduleNames) {
+        String name = war.getName();
+        String baseName = name.substring(0, name.length() - WAR_EXTENSION.length());
+
+        String moduleName = baseName;
+        for (int suffix = 2; !moduleNames.add(moduleName); suffix++) {
+            moduleName = baseName + "-" + suffix;
         }
+
+        return moduleName;
     }
 
-    private Comment postComment(VcsApi vcsApi,
-                                PullRequest pullRequest,
-                                TomcatStagingDeploy stagingDeploy) throws IOException {
+    private ListenableFuture<Comment> postComment(AsyncVcsApi vcsApi,
+                                                  PullRequest pullRequest,
+                                                  final TomcatStagingDeploy stagingDeploy) {
         Comment comment = stagingDeploy.getComment();
 
-        if (comment == null && stagingDeploy.isDeployed()) {
-            comment = vcsApi.postComment(pullRequest.getId(), getComment(stagingDeploy));
-            stagingDeploy.setComment(comment);
+        if (comment != null || !stagingDeploy.isDeployed()) {
+            return Futures.immediateFuture(comment);
         }
 
-        return comment;
+        return Futures.transform(vcsApi.postComment(pullRequest.getId(), getComment(stagingDeploy)),
+                new Function<Comment, Comment>() {
+                    @Override
+                    public Comment apply(Comment comment) {
+                        stagingDeploy.setComment(comment);
+
+                        return comment;
+                    }
+                });
     }
 
     private TomcatStagingDeploy getTomcatStagingDeploy(VcsPropertiesHelper vcsPropertiesHelper,
@@ -187,7 +292,8 @@ public class TomcatDeployHandler {
         String storageId = getStorageId(trigger);
         CustomDataStorage customDataStorage = buildType.getCustomDataStorage(storageId);
 
-        return JsonCustomDataStorage.create(customDataStorage, TomcatStagingDeploy.class);
+        return JsonCustomDataStorage.create(customDataStorage, TomcatStagingDeploy.class,
+                TomcatStagingDeploy.RECORD_FORMAT);
     }
 
     private String getPullRequestKey(VcsPropertiesHelper helper, PullRequest pullRequest) {
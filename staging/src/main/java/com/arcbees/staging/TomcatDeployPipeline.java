@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.staging;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.tomcat.maven.common.deployer.TomcatManagerResponse;
+
+import com.arcbees.vcs.util.VcsRequestExecutor;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class TomcatDeployPipeline {
+    private static final Logger LOGGER = Logger.getLogger(TomcatDeployPipeline.class.getName());
+    private static final String THREADS_PROPERTY = "arcbees.staging.deploy.threads";
+    private static final String QUEUE_CAPACITY_PROPERTY = "arcbees.staging.deploy.queueCapacity";
+    private static final String HOST_CONCURRENCY_PROPERTY = "arcbees.staging.deploy.hostConcurrency";
+    private static final String HOST_QUEUE_CAPACITY_PROPERTY = "arcbees.staging.deploy.hostQueueCapacity";
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final int DEFAULT_HOST_CONCURRENCY = 2;
+    private static final int DEFAULT_HOST_QUEUE_CAPACITY = 50;
+
+    private final TomcatWarUploader warUploader;
+    private final VcsRequestExecutor deployExecutor;
+
+    public TomcatDeployPipeline(TomcatWarUploader warUploader) {
+        this.warUploader = warUploader;
+
+        // Uploads get their own pool so large WARs never hold the threads used for VCS calls
+        deployExecutor = new VcsRequestExecutor("arcbees-staging-deploy-%d",
+                TeamCityProperties.getInteger(THREADS_PROPERTY, DEFAULT_THREADS),
+                TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY),
+                TeamCityProperties.getInteger(HOST_CONCURRENCY_PROPERTY, DEFAULT_HOST_CONCURRENCY),
+                TeamCityProperties.getInteger(HOST_QUEUE_CAPACITY_PROPERTY, DEFAULT_HOST_QUEUE_CAPACITY));
+    }
+
+    public List<ListenableFuture<DeployOutcome>> deploy(final StagingPropertiesHelper propertiesHelper,
+                                                        List<WarDeployment> deployments) {
+        ListeningExecutorService executorService = deployExecutor.getExecutorService(propertiesHelper.getTomcatUrl());
+        List<ListenableFuture<DeployOutcome>> outcomes = Lists.newArrayList();
+
+        for (final WarDeployment deployment : deployments) {
+            try {
+                outcomes.add(executorService.submit(new Callable<DeployOutcome>() {
+                    @Override
+                    public DeployOutcome call() {
+                        return deployWar(propertiesHelper, deployment);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                outcomes.add(Futures.immediateFuture(
+                        DeployOutcome.failed(deployment, "Deploy queue is full: " + e.getMessage())));
+            }
+        }
+
+        return outcomes;
+    }
+
+    // Not bound to a Tomcat host, for the work that prepares a deploy
+    public Executor getExecutor() {
+        return deployExecutor.getExecutorService();
+    }
+
+    public void shutdown() throws InterruptedException {
+        deployExecutor.shutdown();
+    }
+
+    private DeployOutcome deployWar(StagingPropertiesHelper propertiesHelper, WarDeployment deployment) {
+        DeployOutcome outcome;
+        try {
+            String path = deployment.getContextPath();
+            TomcatManagerResponse response =
+                    warUploader.deploy(propertiesHelper, path, deployment.getWar(), true, path);
+
+            if (TomcatWarUploader.isDeployed(response)) {
+                URI tomcatUri = new URI(propertiesHelper.getTomcatUrl());
+                outcome = DeployOutcome.deployed(deployment, UrlUtils.extractBaseUrl(tomcatUri.toURL()) + path);
+            } else {
+                outcome = DeployOutcome.failed(deployment, response.getReasonPhrase());
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            outcome = DeployOutcome.failed(deployment, e.getMessage());
+        }
+
+        LOGGER.log(outcome.isDeployed() ? Level.INFO : Level.SEVERE, "Deploy of {0} to {1}: {2}",
+                new Object[]{deployment.getArtifactName(), deployment.getContextPath(), outcome.getMessage()});
+
+        return outcome;
+    }
+
+    public static class WarDeployment {
+        private final String artifactName;
+        private final File war;
+        private final String contextPath;
+
+        public WarDeployment(String artifactName, File war, String contextPath) {
+            this.artifactName = artifactName;
+            this.war = war;
+            this.contextPath = contextPath;
+        }
+
+        public String getArtifactName() {
+            return artifactName;
+        }
+
+        public File getWar() {
+            return war;
+        }
+
+        public String getContextPath() {
+            return contextPath;
+        }
+    }
+
+    public static class DeployOutcome {
+        private final WarDeployment deployment;
+        private final String webPath;
+        private final boolean deployed;
+        private final String message;
+
+        private DeployOutcome(WarDeployment deployment, String webPath, boolean deployed, String message) {
+            this.deployment = deployment;
+            this.webPath = webPath;
+            this.deployed = deployed;
+            this.message = message;
+        }
+
+        static DeployOutcome deployed(WarDeployment deployment, String webPath) {
+            return new DeployOutcome(deployment, webPath, true, "deployed at " + webPath);
+        }
+
+        static DeployOutcome failed(WarDeployment deployment, String message) {
+            return new DeployOutcome(deployment, null, false, "failed, " + message);
+        }
+
+        public WarDeployment getDeployment() {
+            return deployment;
+        }
+
+        public String getWebPath() {
+            return webPath;
+        }
+
+        public boolean isDeployed() {
+            return deployed;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -16,29 +16,96 @@
 
 package com.arcbees.staging;
 
+import java.util.Collections;
+import java.util.List;
+
 import com.arcbees.vcs.model.Comment;
+import com.arcbees.vcs.model.CommentReference;
 import com.arcbees.vcs.model.PullRequest;
+import com.arcbees.vcs.util.StateRecord;
+import com.arcbees.vcs.util.StateRecordFormat;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 public class TomcatStagingDeploy {
-    private final PullRequest pullRequest;
+    private static final int RECORD_VERSION = 1;
+    // Web paths end in branch names, which can never contain a space
+    private static final char WEB_PATH_SEPARATOR = ' ';
+
+    public static final StateRecordFormat<TomcatStagingDeploy> RECORD_FORMAT =
+            new StateRecordFormat<TomcatStagingDeploy>() {
+                @Override
+                public StateRecord write(TomcatStagingDeploy value) {
+                    Comment comment = value.getComment();
+
+                    return new StateRecord(RECORD_VERSION)
+                            .add(value.getPullRequestId())
+                            .add(value.isDeployed())
+                            .add(value.isUndeployed())
+                            .add(value.getWebPath())
+                            .add(comment == null ? null : comment.getCommentId())
+                            .add(value.getModuleWebPaths().isEmpty()
+                                    ? null : Joiner.on(WEB_PATH_SEPARATOR).join(value.getModuleWebPaths()));
+                }
+
+                @Override
+                public TomcatStagingDeploy read(StateRecord record) {
+                    // A record written by another plugin version is treated as missing rather than misread
+                    if (record.getVersion() != RECORD_VERSION) {
+                        return null;
+                    }
+
+                    TomcatStagingDeploy stagingDeploy = new TomcatStagingDeploy(record.getInteger(0),
+                            record.getBoolean(1), record.getBoolean(2));
+                    stagingDeploy.setWebPath(record.getString(3));
+
+                    Long commentId = record.getLong(4);
+                    if (commentId != null) {
+                        stagingDeploy.setComment(new CommentReference(commentId));
+                    }
+
+                    String moduleWebPaths = record.getString(5);
+                    if (moduleWebPaths != null) {
+                        stagingDeploy.setModuleWebPaths(Lists.newArrayList(
+                                Splitter.on(WEB_PATH_SEPARATOR).omitEmptyStrings().split(moduleWebPaths)));
+                    }
+
+                    return stagingDeploy;
+                }
+            };
+
+    private final Integer pullRequestId;
+    // Only set on deploys read from the legacy JSON format
+    private PullRequest pullRequest;
 
     private Comment comment;
     private boolean deployed;
     private boolean undeployed;
     private String webPath;
+    private List<String> moduleWebPaths;
 
     public TomcatStagingDeploy(PullRequest pullRequest, boolean deployed) {
         this(pullRequest, deployed, false);
     }
 
     public TomcatStagingDeploy(PullRequest pullRequest, boolean deployed, boolean undeployed) {
-        this.pullRequest = pullRequest;
+        this(pullRequest.getId(), deployed, undeployed);
+    }
+
+    private TomcatStagingDeploy(Integer pullRequestId, boolean deployed, boolean undeployed) {
+        this.pullRequestId = pullRequestId;
         this.deployed = deployed;
         this.undeployed = undeployed;
     }
 
-    public PullRequest getPullRequest() {
-        return pullRequest;
+    public Integer getPullRequestId() {
+        if (pullRequestId == null && pullRequest != null) {
+            return pullRequest.getId();
+        }
+
+        return pullRequestId;
     }
 
     public boolean isUndeployed() {
@@ -72,4 +139,12 @@ public class TomcatStagingDeploy {
     public void setWebPath(String webPath) {
         this.webPath = webPath;
     }
+
+    public List<String> getModuleWebPaths() {
+        return moduleWebPaths == null ? Collections.<String>emptyList() : moduleWebPaths;
+    }
+
+    public void setModuleWebPaths(List<String> moduleWebPaths) {
+        this.moduleWebPaths = ImmutableList.copyOf(moduleWebPaths);
+    }
 }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,41 +30,66 @@ import org.apache.tomcat.maven.common.deployer.TomcatManagerException;
 import org.apache.tomcat.maven.common.deployer.TomcatManagerResponse;
 import org.jetbrains.annotations.NotNull;
 
-import com.arcbees.vcs.VcsApi;
-import com.arcbees.vcs.VcsApiFactories;
+import com.arcbees.vcs.PullRequestPageIterator;
+import com.arcbees.vcs.PullRequestSnapshots;
 import com.arcbees.vcs.VcsConstants;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequestTarget;
 import com.arcbees.vcs.model.PullRequests;
+import com.arcbees.vcs.util.AdaptivePollingScheduler;
 import com.arcbees.vcs.util.JsonCustomDataStorage;
+import com.arcbees.vcs.util.RateLimitedException;
+import com.arcbees.vcs.util.StateCompactor;
 import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import jetbrains.buildServer.buildTriggers.BuildTriggerDescriptor;
 import jetbrains.buildServer.buildTriggers.BuildTriggerException;
 import jetbrains.buildServer.buildTriggers.PolledBuildTrigger;
 import jetbrains.buildServer.buildTriggers.PolledTriggerContext;
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 
 public class TomcatStagingTrigger extends PolledBuildTrigger {
     private static final Logger LOGGER = Logger.getLogger(TomcatStagingTrigger.class.getName());
+    private static final String MERGED_MAX_PAGES_PROPERTY = "arcbees.staging.mergedPullRequests.maxPages";
+    private static final int DEFAULT_MERGED_MAX_PAGES = 3;
 
-    private final VcsApiFactories vcsApiFactories;
+    private final PullRequestSnapshots pullRequestSnapshots;
     private final TomcatManagerFactory tomcatManagerFactory;
     private final Constants constants;
     private final VcsConstants vcsConstants;
+    private final AdaptivePollingScheduler pollingScheduler;
+    private final StateCompactor stateCompactor;
 
-    public TomcatStagingTrigger(VcsApiFactories vcsApiFactories,
+    public TomcatStagingTrigger(PullRequestSnapshots pullRequestSnapshots,
                                 TomcatManagerFactory tomcatManagerFactory,
                                 Constants constants,
-                                VcsConstants vcsConstants) {
-        this.vcsApiFactories = vcsApiFactories;
+                                VcsConstants vcsConstants,
+                                AdaptivePollingScheduler pollingScheduler,
+                                StateCompactor stateCompactor) {
+        this.pullRequestSnapshots = pullRequestSnapshots;
         this.tomcatManagerFactory = tomcatManagerFactory;
         this.constants = constants;
         this.vcsConstants = vcsConstants;
+        this.pollingScheduler = pollingScheduler;
+        this.stateCompactor = stateCompactor;
+    }
+
+    @Override
+    public int getPollInterval(@NotNull PolledTriggerContext context) {
+        return pollingScheduler.getPollInterval(getScheduleKey(context));
     }
 
     @Override
     public void triggerBuild(@NotNull PolledTriggerContext context) throws BuildTriggerException {
+        if (!pollingScheduler.isPollDue(getScheduleKey(context))) {
+            return;
+        }
+
         BuildTriggerDescriptor triggerDescriptor = context.getTriggerDescriptor();
         Map<String, String> properties = triggerDescriptor.getProperties();
 
@@ -74,8 +100,17 @@ public class TomcatStagingTrigger extends PolledBuildTrigger {
         if (!Strings.isNullOrEmpty(mergeBranch)) {
             try {
                 checkBranchesToUndeploy(context, properties, stagingPropertiesHelper, mergeBranch);
+            } catch (RateLimitedException e) {
+                if (e.isDeferred()) {
+                    LOGGER.log(Level.FINE, "Staging undeploy check deferred. " + e.getMessage());
+                    pollingScheduler.recordDeferral(getScheduleKey(context), e.getRetryAt());
+                } else {
+                    LOGGER.log(Level.WARNING, "Staging undeploy check rate limited. " + e.getMessage());
+                    pollingScheduler.recordFailure(getScheduleKey(context), e.getRetryAt());
+                }
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                pollingScheduler.recordFailure(getScheduleKey(context));
             }
         }
     }
@@ -88,27 +123,74 @@ public class TomcatStagingTrigger extends PolledBuildTrigger {
         String repositoryName = vcsPropertiesHelper.getRepositoryName();
 
         JsonCustomDataStorage<TomcatStagingDeploy> dataStorage =
-                JsonCustomDataStorage.create(context.getCustomDataStorage(), TomcatStagingDeploy.class);
+                JsonCustomDataStorage.createWriteBehind(context.getCustomDataStorage(), TomcatStagingDeploy.class,
+                        TomcatStagingDeploy.RECORD_FORMAT);
         TomcatManager tomcatManager = createTomcatManager(stagingPropertiesHelper);
 
-        PullRequests<? extends PullRequest> pullRequests = getMergedPullRequests(vcsPropertiesHelper);
-        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
-            if (isTargetMergeBranch(mergeBranch, pullRequest)) {
-                String pullRequestKey = getPullRequestKey(repositoryOwner, repositoryName, pullRequest);
-                TomcatStagingDeploy stagingDeploy = getTomcatStagingDeploy(dataStorage, pullRequest, pullRequestKey);
-
-                if (stagingDeploy.isDeployed() && !stagingDeploy.isUndeployed()) {
-                    undeploy(tomcatManager, stagingDeploy);
-                    dataStorage.putValue(pullRequestKey, stagingDeploy);
+        Hasher fingerprint = Hashing.md5().newHasher();
+        int maxPages = TeamCityProperties.getInteger(MERGED_MAX_PAGES_PROPERTY, DEFAULT_MERGED_MAX_PAGES);
+        PullRequestPageIterator pages = pullRequestSnapshots.getMergedPullRequestPages(vcsPropertiesHelper);
+        try {
+            while (pages.hasNext() && pages.getPageCount() < maxPages) {
+                PullRequests<? extends PullRequest> pullRequests = pages.next();
+
+                for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+                    fingerprint.putInt(pullRequest.getId())
+                            .putLong(pullRequest.getUpdatedOn() == null ? 0 : pullRequest.getUpdatedOn().getTime());
+
+                    if (isTargetMergeBranch(mergeBranch, pullRequest)) {
+                        String pullRequestKey = getPullRequestKey(repositoryOwner, repositoryName, pullRequest);
+                        TomcatStagingDeploy stagingDeploy =
+                                getTomcatStagingDeploy(dataStorage, pullRequest, pullRequestKey);
+
+                        if (stagingDeploy.isDeployed() && !stagingDeploy.isUndeployed()) {
+                            undeploy(tomcatManager, stagingDeploy);
+                            dataStorage.putValue(pullRequestKey, stagingDeploy);
+                        }
+                    }
                 }
             }
+        } finally {
+            // undeploys already happened, so record them even if a later page fails
+            dataStorage.flush();
         }
+
+        String scheduleKey = getScheduleKey(context);
+        if (stateCompactor.isCompactionDue(scheduleKey)) {
+            scheduleCompaction(scheduleKey, context.getCustomDataStorage(), dataStorage, vcsPropertiesHelper);
+        }
+        pollingScheduler.recordPoll(scheduleKey, fingerprint.hash().toString());
     }
 
-    private PullRequests getMergedPullRequests(VcsPropertiesHelper vcsPropertiesHelper) throws IOException {
-        VcsApi vcsApi = vcsApiFactories.create(vcsPropertiesHelper);
+    private void scheduleCompaction(String scheduleKey,
+                                    CustomDataStorage customDataStorage,
+                                    JsonCustomDataStorage<TomcatStagingDeploy> dataStorage,
+                                    VcsPropertiesHelper vcsPropertiesHelper) throws IOException {
+        String repositoryOwner = vcsPropertiesHelper.getRepositoryOwner();
+        String repositoryName = vcsPropertiesHelper.getRepositoryName();
+        String keyPrefix = getPullRequestKeyPrefix(repositoryOwner, repositoryName);
+
+        Set<String> liveKeys = Sets.newHashSet();
+        PullRequests<? extends PullRequest> openedPullRequests =
+                pullRequestSnapshots.getOpenedPullRequests(vcsPropertiesHelper);
+        for (PullRequest pullRequest : openedPullRequests.getPullRequests()) {
+            liveKeys.add(getPullRequestKey(repositoryOwner, repositoryName, pullRequest));
+        }
+
+        Map<String, String> values = customDataStorage.getValues();
+        if (values != null) {
+            for (String key : values.keySet()) {
+                if (key.startsWith(keyPrefix) && !liveKeys.contains(key)) {
+                    TomcatStagingDeploy stagingDeploy = dataStorage.getValue(key);
 
-        return vcsApi.getMergedPullRequests();
+                    if (stagingDeploy != null && stagingDeploy.isDeployed() && !stagingDeploy.isUndeployed()) {
+                        liveKeys.add(key);
+                    }
+                }
+            }
+        }
+
+        stateCompactor.scheduleCompaction(scheduleKey, customDataStorage, keyPrefix, liveKeys);
     }
 
     private TomcatStagingDeploy getTomcatStagingDeploy(JsonCustomDataStorage<TomcatStagingDeploy> dataStorage,
@@ -138,9 +220,22 @@ public class TomcatStagingTrigger extends PolledBuildTrigger {
     }
 
     private void undeploy(TomcatManager tomcatManager, TomcatStagingDeploy stagingDeploy) throws IOException {
-        boolean success;
+        // Modules are nested under the primary webapp context, so they go first
+        boolean success = true;
+        for (String moduleWebPath : stagingDeploy.getModuleWebPaths()) {
+            success &= undeploy(tomcatManager, moduleWebPath);
+        }
+        // An empty path would undeploy the root webapp, so skip the primary if it never deployed
+        if (stagingDeploy.getWebPath() != null) {
+            success &= undeploy(tomcatManager, stagingDeploy.getWebPath());
+        }
+
+        stagingDeploy.setUndeployed(success);
+    }
+
+    private boolean undeploy(TomcatManager tomcatManager, String deployedWebPath) throws IOException {
         try {
-            String webPath = getWebAppUndeployPath(tomcatManager, stagingDeploy);
+            String webPath = getWebAppUndeployPath(tomcatManager, deployedWebPath);
 
             LOGGER.info("Undeploying WebAPP : " + webPath);
 
@@ -149,29 +244,32 @@ public class TomcatStagingTrigger extends PolledBuildTrigger {
 
             LOGGER.info("Undeploying Status : " + statusCode);
 
-            success = HttpStatus.SC_OK == statusCode || HttpStatus.SC_NOT_FOUND == statusCode;
+            return HttpStatus.SC_OK == statusCode || HttpStatus.SC_NOT_FOUND == statusCode;
         } catch (TomcatManagerException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
-            success = false;
+            return false;
         }
-
-        stagingDeploy.setUndeployed(success);
     }
 
-    private String getWebAppUndeployPath(TomcatManager tomcatManager,
-                                         TomcatStagingDeploy stagingDeploy) {
+    private String getWebAppUndeployPath(TomcatManager tomcatManager, String webPath) {
         String tomcatUrl = UrlUtils.extractBaseUrl(tomcatManager.getURL());
 
-        return Strings.nullToEmpty(stagingDeploy.getWebPath())
-                .replace(tomcatUrl, "");
+        return Strings.nullToEmpty(webPath).replace(tomcatUrl, "");
     }
 
     private String getBranchName(PullRequestTarget source) {
         return source.getBranch().getName();
     }
 
+    private String getScheduleKey(PolledTriggerContext context) {
+        return context.getBuildType().getBuildTypeId() + "_" + context.getTriggerDescriptor().getId();
+    }
+
     private String getPullRequestKey(String repositoryOwner, String repositoryName, PullRequest pullRequest) {
-        return vcsConstants.getPullRequestKey() + repositoryOwner + "_" + repositoryName + "_"
-                + pullRequest.getId();
+        return getPullRequestKeyPrefix(repositoryOwner, repositoryName) + pullRequest.getId();
+    }
+
+    private String getPullRequestKeyPrefix(String repositoryOwner, String repositoryName) {
+        return vcsConstants.getPullRequestKey() + repositoryOwner + "_" + repositoryName + "_";
     }
 }
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.staging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.apache.tomcat.maven.common.deployer.TomcatManagerResponse;
+
+import com.google.common.base.Charsets;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class TomcatWarUploader {
+    private static final Logger LOGGER = Logger.getLogger(TomcatWarUploader.class.getName());
+    private static final String BUFFER_SIZE_PROPERTY = "arcbees.staging.upload.bufferSize";
+    private static final String CHUNKED_PROPERTY = "arcbees.staging.upload.chunked";
+    private static final String PROGRESS_STEP_PROPERTY = "arcbees.staging.upload.progressPercent";
+    private static final String CONNECT_TIMEOUT_PROPERTY = "arcbees.staging.upload.connectTimeoutMillis";
+    private static final String SOCKET_TIMEOUT_PROPERTY = "arcbees.staging.upload.socketTimeoutMillis";
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final int DEFAULT_PROGRESS_STEP = 10;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 5 * 60 * 1000;
+    private static final String DEPLOY_COMMAND = "/deploy";
+    private static final String FAILURE_PREFIX = "FAIL";
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final CloseableHttpClient httpClient;
+
+    public TomcatWarUploader() {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(TeamCityProperties.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT))
+                .setSocketTimeout(TeamCityProperties.getInteger(SOCKET_TIMEOUT_PROPERTY, DEFAULT_SOCKET_TIMEOUT))
+                .build();
+
+        // Uploads are not idempotent enough to replay blindly, so no retry handler here
+        httpClient = HttpClientBuilder.create()
+                .useSystemProperties()
+                .disableAutomaticRetries()
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    public TomcatManagerResponse deploy(StagingPropertiesHelper propertiesHelper,
+                                        String path,
+                                        File war,
+                                        boolean update,
+                                        String tag) throws IOException {
+        HttpPut request = new HttpPut(getDeployUri(propertiesHelper, path, update, tag));
+        includeAuthentication(request, propertiesHelper);
+        request.setEntity(new WarEntity(war, path));
+
+        try {
+            HttpResponse response = httpClient.execute(request);
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? "" : EntityUtils.toString(entity, Charsets.UTF_8);
+
+            TomcatManagerResponse managerResponse = new TomcatManagerResponse()
+                    .setStatusCode(response.getStatusLine().getStatusCode())
+                    .setReasonPhrase(response.getStatusLine().getReasonPhrase())
+                    .setHttpResponseBody(body);
+
+            // The text manager answers 200 even when the deploy itself failed
+            if (body.startsWith(FAILURE_PREFIX)) {
+                managerResponse.setReasonPhrase(body.trim());
+            }
+
+            return managerResponse;
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    public static boolean isDeployed(TomcatManagerResponse response) {
+        String body = response.getHttpResponseBody();
+
+        return HttpStatus.SC_OK == response.getStatusCode() && (body == null || !body.startsWith(FAILURE_PREFIX));
+    }
+
+    public void shutdown() throws IOException {
+        httpClient.close();
+    }
+
+    private URI getDeployUri(StagingPropertiesHelper propertiesHelper, String path, boolean update, String tag)
+            throws IOException {
+        try {
+            URIBuilder uriBuilder = new URIBuilder(propertiesHelper.getTomcatUrl() + DEPLOY_COMMAND)
+                    .addParameter("path", path);
+            if (update) {
+                uriBuilder.addParameter("update", "true");
+            }
+            if (tag != null) {
+                uriBuilder.addParameter("tag", tag);
+            }
+
+            return uriBuilder.build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid Tomcat manager URL " + propertiesHelper.getTomcatUrl(), e);
+        }
+    }
+
+    private void includeAuthentication(HttpPut request, StagingPropertiesHelper propertiesHelper)
+            throws IOException {
+        UsernamePasswordCredentials credentials =
+                new UsernamePasswordCredentials(propertiesHelper.getUserName(), propertiesHelper.getPassword());
+
+        try {
+            request.addHeader(new BasicScheme(Charsets.UTF_8).authenticate(credentials, request, null));
+        } catch (AuthenticationException e) {
+            throw new IOException("Failed to set authentication for request. " + e.getMessage(), e);
+        }
+    }
+
+    private static class WarEntity extends AbstractHttpEntity {
+        private final File war;
+        private final String path;
+        private final int bufferSize;
+        private final int progressStep;
+
+        WarEntity(File war, String path) {
+            this.war = war;
+            this.path = path;
+            this.bufferSize = TeamCityProperties.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE);
+            this.progressStep = TeamCityProperties.getInteger(PROGRESS_STEP_PROPERTY, DEFAULT_PROGRESS_STEP);
+
+            setContentType(ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+            setChunked(TeamCityProperties.getBoolean(CHUNKED_PROPERTY));
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return isChunked() ? -1 : war.length();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FileInputStream(war);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            long size = war.length();
+            long start = System.nanoTime();
+            int nextProgress = progressStep;
+
+            // transferTo lets the JDK copy straight from the page cache when the target allows it
+            try (FileInputStream inputStream = new FileInputStream(war)) {
+                FileChannel fileChannel = inputStream.getChannel();
+                WritableByteChannel target = Channels.newChannel(outputStream);
+
+                long position = 0;
+                while (position < size) {
+                    position += fileChannel.transferTo(position, Math.min(bufferSize, size - position), target);
+
+                    int percent = (int) (position * 100 / size);
+                    if (progressStep > 0 && percent >= nextProgress && position < size) {
+                        logProgress(position, size, start, Level.FINE);
+                        nextProgress = percent - percent % progressStep + progressStep;
+                    }
+                }
+            }
+            outputStream.flush();
+
+            logProgress(size, size, start, Level.INFO);
+        }
+
+        private void logProgress(long sent, long size, long start, Level level) {
+            if (!LOGGER.isLoggable(level)) {
+                return;
+            }
+
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            double megabytesPerSecond = sent / BYTES_PER_MEGABYTE / (elapsedMillis / 1000d);
+
+            LOGGER.log(level, String.format("Uploading %s to %s: %.1f/%.1f MB in %d ms (%.2f MB/s)",
+                    war.getName(), path, sent / BYTES_PER_MEGABYTE, size / BYTES_PER_MEGABYTE, elapsedMillis,
+                    megabytesPerSecond));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.staging;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.arcbees.vcs.util.JsonCustomDataStorage;
+import com.google.common.collect.Lists;
+
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class TomcatStagingDeployTest {
+    private static final String KEY = "pullrequest_ArcBees_GWTP_42";
+    private static final String LEGACY_JSON = "{\"pullRequest\":{"
+            + "\"@class\":\"com.arcbees.vcs.github.model.GitHubPullRequest\","
+            + "\"@value\":{\"state\":\"closed\",\"number\":42}},"
+            + "\"comment\":{\"@class\":\"com.arcbees.vcs.github.model.GitHubComment\",\"@value\":{\"id\":7}},"
+            + "\"deployed\":true,\"undeployed\":false,\"webPath\":\"/gwtp-feature\"}";
+
+    private CustomDataStorage customDataStorage;
+    private JsonCustomDataStorage<TomcatStagingDeploy> dataStorage;
+
+    @Before
+    public void setUp() {
+        customDataStorage = mock(CustomDataStorage.class);
+        dataStorage = JsonCustomDataStorage.create(customDataStorage, TomcatStagingDeploy.class,
+                TomcatStagingDeploy.RECORD_FORMAT);
+    }
+
+    @Test
+    public void getValue_legacyJson_readsDeployState() {
+        given(customDataStorage.getValue(KEY)).willReturn(LEGACY_JSON);
+
+        TomcatStagingDeploy stagingDeploy = dataStorage.getValue(KEY);
+
+        assertEquals(Integer.valueOf(42), stagingDeploy.getPullRequestId());
+        assertTrue(stagingDeploy.isDeployed());
+        assertFalse(stagingDeploy.isUndeployed());
+        assertEquals("/gwtp-feature", stagingDeploy.getWebPath());
+        assertEquals(Long.valueOf(7), stagingDeploy.getComment().getCommentId());
+        assertTrue(stagingDeploy.getModuleWebPaths().isEmpty());
+    }
+
+    @Test
+    public void putValue_legacyJson_migratesToRecord() {
+        given(customDataStorage.getValue(KEY)).willReturn(LEGACY_JSON);
+
+        dataStorage.putValue(KEY, dataStorage.getValue(KEY));
+
+        verify(customDataStorage).putValue(KEY, "@v1|42|true|false|/gwtp-feature|7|");
+    }
+
+    @Test
+    public void getValue_record_roundTripsModuleWebPaths() {
+        String record = "@v1|42|true|false|/gwtp-feature|7|/gwtp-feature-api /gwtp-feature-admin";
+        given(customDataStorage.getValue(KEY)).willReturn("@v1|42|true|false|/gwtp-feature|7|");
+        TomcatStagingDeploy stagingDeploy = dataStorage.getValue(KEY);
+        stagingDeploy.setModuleWebPaths(Lists.newArrayList("/gwtp-feature-api", "/gwtp-feature-admin"));
+
+        dataStorage.putValue(KEY, stagingDeploy);
+
+        verify(customDataStorage).putValue(KEY, record);
+        given(customDataStorage.getValue(KEY)).willReturn(record);
+        assertEquals(Lists.newArrayList("/gwtp-feature-api", "/gwtp-feature-admin"),
+                dataStorage.getValue(KEY).getModuleWebPaths());
+    }
+
+    @Test
+    public void getValue_unknownRecordVersion_returnsNull() {
+        given(customDataStorage.getValue(KEY)).willReturn("@v2|42|true|false|/gwtp-feature|7|");
+
+        assertNull(dataStorage.getValue(KEY));
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingTaskQueueTest {
+    private static final String KEY = "0123abcd|bt1";
+
+    private final CoalescingTaskQueue queue = new CoalescingTaskQueue();
+    private final List<String> ran = Lists.newCopyOnWriteArrayList();
+
+    @Test
+    public void submit_queuedUpdatesForSameKey_onlyLatestRuns() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ListeningExecutorService executorService = MoreExecutors.listeningDecorator(executor);
+        CountDownLatch blocker = new CountDownLatch(1);
+        executorService.submit(await(blocker));
+
+        ListenableFuture<String> first = queue.submit(KEY, record("pending"), executorService);
+        ListenableFuture<String> second = queue.submit(KEY, record("failure"), executorService);
+        ListenableFuture<String> third = queue.submit(KEY, record("success"), executorService);
+        blocker.countDown();
+
+        assertEquals("success", third.get(5, TimeUnit.SECONDS));
+        assertNull(first.get(5, TimeUnit.SECONDS));
+        assertNull(second.get(5, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("success"), ran);
+        assertEquals(2, queue.getSupersededCount());
+
+        shutdown(executor);
+    }
+
+    @Test
+    public void submit_whileUpdateRunning_runsRunningAndLatest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ListeningExecutorService executorService = MoreExecutors.listeningDecorator(executor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ListenableFuture<String> running = queue.submit(KEY, blockingRecord("pending", started, release),
+                executorService);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ListenableFuture<String> superseded = queue.submit(KEY, record("failure"), executorService);
+        ListenableFuture<String> latest = queue.submit(KEY, record("success"), executorService);
+        release.countDown();
+
+        assertEquals("pending", running.get(5, TimeUnit.SECONDS));
+        assertNull(superseded.get(5, TimeUnit.SECONDS));
+        assertEquals("success", latest.get(5, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList("pending", "success"), ran);
+        assertEquals(1, queue.getSupersededCount());
+
+        shutdown(executor);
+    }
+
+    @Test
+    public void submit_differentKeys_allRun() throws Exception {
+        ListeningExecutorService executorService = MoreExecutors.sameThreadExecutor();
+
+        queue.submit(KEY, record("bt1"), executorService);
+        queue.submit("0123abcd|bt2", record("bt2"), executorService);
+
+        assertEquals(Lists.newArrayList("bt1", "bt2"), ran);
+        assertEquals(0, queue.getSupersededCount());
+        assertEquals(0, queue.size());
+    }
+
+    private Callable<String> record(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                ran.add(value);
+                return value;
+            }
+        };
+    }
+
+    private Callable<String> blockingRecord(final String value,
+                                            final CountDownLatch started,
+                                            final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                ran.add(value);
+                return value;
+            }
+        };
+    }
+
+    private Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
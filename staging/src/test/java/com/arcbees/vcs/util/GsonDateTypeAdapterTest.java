@@ -17,17 +17,22 @@
 package com.arcbees.vcs.util;
 
 import java.lang.reflect.Type;
+import java.util.Date;
 
 import org.junit.Test;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 
 public class GsonDateTypeAdapterTest {
+    private final GsonDateTypeAdapter typeAdapter = new GsonDateTypeAdapter();
+
     @Test
     public void deserialize() throws Exception {
         JsonElement jsonElement = mock(JsonElement.class);
@@ -36,4 +41,58 @@ public class GsonDateTypeAdapterTest {
 
         typeAdapter.deserialize(jsonElement, mock(Type.class), mock(JsonDeserializationContext.class));
     }
+
+    @Test
+    public void deserialize_microseconds_truncatesToMilliseconds() {
+        assertEquals(1438191089962L, deserialize("2015-07-29T17:31:29.962962+00:00").getTime());
+    }
+
+    @Test
+    public void deserialize_millisecondsWithUtcDesignator() {
+        assertEquals(1438191089962L, deserialize("2015-07-29T17:31:29.962Z").getTime());
+    }
+
+    @Test
+    public void deserialize_secondsWithUtcDesignator() {
+        assertEquals(1296068472000L, deserialize("2011-01-26T19:01:12Z").getTime());
+    }
+
+    @Test
+    public void deserialize_spaceSeparatedWithOffset() {
+        assertEquals(1395335482000L, deserialize("2014-03-20 13:11:22-04:00").getTime());
+    }
+
+    @Test
+    public void deserialize_leapDay() {
+        assertEquals(1456704000000L, deserialize("2016-02-29T00:00:00+0000").getTime());
+    }
+
+    @Test
+    public void deserialize_beforeEpoch() {
+        assertEquals(-500L, deserialize("1969-12-31T23:59:59.500Z").getTime());
+    }
+
+    @Test
+    public void deserialize_epochMillis() {
+        assertEquals(1438191089962L, deserialize("1438191089962").getTime());
+    }
+
+    @Test
+    public void deserialize_switchesBetweenShapes() {
+        assertEquals(1438191089962L, deserialize("1438191089962").getTime());
+        assertEquals(1296068472000L, deserialize("2011-01-26T19:01:12Z").getTime());
+        assertEquals(1438191089962L, deserialize("1438191089962").getTime());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void deserialize_unparseable_throws() {
+        deserialize("not a date");
+    }
+
+    private Date deserialize(String value) {
+        JsonElement jsonElement = mock(JsonElement.class);
+        given(jsonElement.getAsJsonPrimitive()).willReturn(new JsonPrimitive(value));
+
+        return typeAdapter.deserialize(jsonElement, mock(Type.class), mock(JsonDeserializationContext.class));
+    }
 }
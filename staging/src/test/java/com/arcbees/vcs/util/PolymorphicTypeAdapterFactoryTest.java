@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import org.junit.Test;
+
+import com.arcbees.vcs.github.model.GitHubComment;
+import com.arcbees.vcs.model.Comment;
+import com.arcbees.vcs.model.CommentReference;
+import com.arcbees.vcs.stash.model.StashComment;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PolymorphicTypeAdapterFactoryTest {
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new PolymorphicTypeAdapterFactory<>(Comment.class)
+                    .registerSubtype("github", GitHubComment.class)
+                    .registerSubtype("reference", CommentReference.class))
+            .create();
+
+    @Test
+    public void toJson_registeredSubtype_writesToken() {
+        String json = gson.toJson(new CommentReference(7L), Comment.class);
+
+        assertEquals("{\"@type\":\"reference\",\"@value\":{\"commentId\":7}}", json);
+    }
+
+    @Test
+    public void toJson_unregisteredSubtype_writesClassName() {
+        StashComment comment = new StashComment();
+        comment.setCommentId(7L);
+
+        String json = gson.toJson(comment, Comment.class);
+
+        assertEquals("{\"@class\":\"com.arcbees.vcs.stash.model.StashComment\",\"@value\":{\"id\":7}}", json);
+    }
+
+    @Test
+    public void fromJson_token_roundTripsSubtype() {
+        String json = gson.toJson(new CommentReference(7L), Comment.class);
+
+        Comment comment = gson.fromJson(json, Comment.class);
+
+        assertTrue(comment instanceof CommentReference);
+        assertEquals(Long.valueOf(7), comment.getCommentId());
+    }
+
+    @Test
+    public void fromJson_legacyClassEnvelope_readsRegisteredSubtype() {
+        String json = "{\"@class\":\"com.arcbees.vcs.github.model.GitHubComment\",\"@value\":{\"id\":7}}";
+
+        Comment comment = gson.fromJson(json, Comment.class);
+
+        assertTrue(comment instanceof GitHubComment);
+        assertEquals(Long.valueOf(7), comment.getCommentId());
+    }
+
+    @Test
+    public void fromJson_legacyClassEnvelope_readsUnregisteredSubtype() {
+        String json = "{\"@class\":\"com.arcbees.vcs.stash.model.StashComment\",\"@value\":{\"id\":7}}";
+
+        Comment comment = gson.fromJson(json, Comment.class);
+
+        assertTrue(comment instanceof StashComment);
+        assertEquals(Long.valueOf(7), comment.getCommentId());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void fromJson_legacyClassEnvelopeOfOtherType_throws() {
+        gson.fromJson("{\"@class\":\"java.lang.String\",\"@value\":\"7\"}", Comment.class);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void fromJson_legacyClassEnvelopeOfMissingClass_throws() {
+        gson.fromJson("{\"@class\":\"com.arcbees.vcs.removed.RemovedComment\",\"@value\":{}}", Comment.class);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void fromJson_unknownToken_throws() {
+        gson.fromJson("{\"@type\":\"gitlab\",\"@value\":{\"id\":7}}", Comment.class);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void fromJson_missingType_throws() {
+        gson.fromJson("{\"@value\":{\"id\":7}}", Comment.class);
+    }
+
+    @Test
+    public void fromJson_null_returnsNull() {
+        assertNull(gson.fromJson("null", Comment.class));
+    }
+}
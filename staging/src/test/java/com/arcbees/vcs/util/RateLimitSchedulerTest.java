@@ -0,0 +1,187 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimitSchedulerTest {
+    private static final String KEY = "api.github.com|0123456789abcdef";
+    private static final int RESERVED_REQUESTS = 50;
+    private static final long DEFAULT_RETRY_AFTER = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long MIN_SAMPLE_MILLIS = 10;
+
+    private final RateLimitScheduler scheduler = new RateLimitScheduler(RESERVED_REQUESTS, 30000,
+            DEFAULT_RETRY_AFTER, MIN_SAMPLE_MILLIS);
+
+    @Test
+    public void update_tooManyRequestsWithRetryAfter_blocksAllPriorities() {
+        long now = System.currentTimeMillis();
+
+        long blockedUntil = scheduler.update(KEY, response(429, HttpHeaders.RETRY_AFTER, "120"));
+
+        assertBetween(now + 120000, blockedUntil);
+        assertEquals(blockedUntil, getRetryAt(RateLimitScheduler.Priority.LOW));
+        assertEquals(blockedUntil, getRetryAt(RateLimitScheduler.Priority.HIGH));
+    }
+
+    @Test
+    public void update_forbiddenWithNoRemainingRequests_blocksUntilReset() {
+        long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 600;
+        HttpResponse response = response(403, "X-RateLimit-Remaining", "0");
+        response.addHeader("X-RateLimit-Reset", String.valueOf(reset));
+
+        assertTrue(RateLimitScheduler.isRateLimited(response));
+        assertEquals(TimeUnit.SECONDS.toMillis(reset), scheduler.update(KEY, response));
+    }
+
+    @Test
+    public void update_tooManyRequestsWithoutHeaders_usesDefaultRetryAfter() {
+        long now = System.currentTimeMillis();
+
+        assertBetween(now + DEFAULT_RETRY_AFTER, scheduler.update(KEY, response(429)));
+    }
+
+    @Test
+    public void update_forbiddenWithoutRateLimitHeaders_isNotRateLimited() throws RateLimitedException {
+        HttpResponse response = response(403);
+
+        assertFalse(RateLimitScheduler.isRateLimited(response));
+        assertEquals(0, scheduler.update(KEY, response));
+        scheduler.acquire(KEY, RateLimitScheduler.Priority.LOW);
+    }
+
+    @Test
+    public void acquire_unknownQuota_neverWaits() throws RateLimitedException {
+        for (int i = 0; i < 100; i++) {
+            scheduler.acquire(KEY, RateLimitScheduler.Priority.LOW);
+        }
+    }
+
+    @Test
+    public void acquire_quotaWithinReserve_defersLowPriorityOnly() throws RateLimitedException {
+        long reset = updateQuota(RESERVED_REQUESTS, 600);
+
+        assertEquals(TimeUnit.SECONDS.toMillis(reset), getRetryAt(RateLimitScheduler.Priority.LOW));
+        scheduler.acquire(KEY, RateLimitScheduler.Priority.HIGH);
+    }
+
+    @Test
+    public void acquire_reserveExhausted_defersHighPriorityUntilReset() throws RateLimitedException {
+        long reset = updateQuota(1, 600);
+
+        scheduler.acquire(KEY, RateLimitScheduler.Priority.HIGH);
+
+        assertEquals(TimeUnit.SECONDS.toMillis(reset), getRetryAt(RateLimitScheduler.Priority.HIGH));
+    }
+
+    @Test
+    public void acquire_quotaNotAtRisk_neverDefersLowPriority() throws Exception {
+        updateQuota(RESERVED_REQUESTS + 100000, 100);
+        Thread.sleep(2 * MIN_SAMPLE_MILLIS);
+        updateQuota(RESERVED_REQUESTS + 100000, 100);
+
+        // A few requests in 20ms project to far less than the spare 100000 before the reset
+        for (int i = 0; i < 10; i++) {
+            scheduler.acquire(KEY, RateLimitScheduler.Priority.LOW);
+        }
+    }
+
+    @Test
+    public void acquire_quotaAtRisk_spreadsRemainingQuotaUntilReset() throws Exception {
+        updateQuota(RESERVED_REQUESTS + 200, 100);
+        Thread.sleep(2 * MIN_SAMPLE_MILLIS);
+        updateQuota(RESERVED_REQUESTS + 100, 100);
+        long now = System.currentTimeMillis();
+
+        scheduler.acquire(KEY, RateLimitScheduler.Priority.LOW);
+
+        // 100 spare requests over 100 seconds leave one request per second
+        long retryAt = getRetryAt(RateLimitScheduler.Priority.LOW);
+        assertTrue(retryAt >= now + 900 && retryAt <= now + 1100);
+    }
+
+    @Test
+    public void getRateLimitKey_separatesCredentialsOnSameHost() {
+        HttpGet anonymous = new HttpGet("https://api.github.com/repos/owner/name/pulls");
+        HttpGet first = new HttpGet("https://api.github.com/repos/owner/name/pulls");
+        first.addHeader(HttpHeaders.AUTHORIZATION, "Bearer first");
+        HttpGet second = new HttpGet("https://api.github.com/repos/other/name/pulls");
+        second.addHeader(HttpHeaders.AUTHORIZATION, "Bearer second");
+        HttpGet secondAgain = new HttpGet("https://api.github.com/repos/owner/name/pulls/1");
+        secondAgain.addHeader(HttpHeaders.AUTHORIZATION, "Bearer second");
+
+        assertEquals("api.github.com", RateLimitScheduler.getRateLimitKey(anonymous));
+        assertFalse(RateLimitScheduler.getRateLimitKey(first).equals(RateLimitScheduler.getRateLimitKey(second)));
+        assertEquals(RateLimitScheduler.getRateLimitKey(second), RateLimitScheduler.getRateLimitKey(secondAgain));
+        assertFalse(RateLimitScheduler.getRateLimitKey(first).contains("first"));
+    }
+
+    @Test
+    public void update_blockedCredential_doesNotBlockOtherCredential() throws RateLimitedException {
+        scheduler.update(KEY, response(429, HttpHeaders.RETRY_AFTER, "120"));
+
+        scheduler.acquire("api.github.com|fedcba9876543210", RateLimitScheduler.Priority.LOW);
+    }
+
+    private long updateQuota(int remaining, int resetInSeconds) {
+        long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + resetInSeconds;
+        HttpResponse response = response(200, "X-RateLimit-Remaining", String.valueOf(remaining));
+        response.addHeader("X-RateLimit-Reset", String.valueOf(reset));
+
+        scheduler.update(KEY, response);
+
+        return reset;
+    }
+
+    private long getRetryAt(RateLimitScheduler.Priority priority) {
+        try {
+            scheduler.acquire(KEY, priority);
+        } catch (RateLimitedException e) {
+            return e.getRetryAt();
+        }
+
+        fail("Expected " + priority + " request to be deferred");
+        return 0;
+    }
+
+    private void assertBetween(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected + 1000);
+    }
+
+    private HttpResponse response(int statusCode, String... header) {
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, statusCode, null));
+        if (header.length == 2) {
+            response.addHeader(header[0], header[1]);
+        }
+
+        return response;
+    }
+}
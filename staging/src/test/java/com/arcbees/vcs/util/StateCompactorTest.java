@@ -0,0 +1,141 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class StateCompactorTest {
+    private static final String STORAGE_NAME = "bt1_trigger1";
+    private static final String KEY_PREFIX = "pullrequest_ArcBees_GWTP_";
+    private static final String LIVE_KEY = KEY_PREFIX + "1";
+    private static final String DEAD_KEY = KEY_PREFIX + "2";
+    private static final String DEAD_VALUE = "@v1|2|caf\u00e9";
+    private static final Set<String> LIVE_KEYS = ImmutableSet.of(LIVE_KEY);
+
+    private CustomDataStorage dataStorage;
+    private StateCompactor compactor;
+
+    @Before
+    public void setUp() {
+        dataStorage = mock(CustomDataStorage.class);
+        given(dataStorage.getValues()).willReturn(ImmutableMap.of(
+                LIVE_KEY, "@v1|1|abc123",
+                DEAD_KEY, DEAD_VALUE,
+                "pullrequest_index_ArcBees_GWTP", "@v1"));
+
+        compactor = new StateCompactor(0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        compactor.shutdown();
+    }
+
+    @Test
+    public void compact_firstSighting_onlyMarksDeadKey() {
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        assertEquals(0, result.getReclaimedKeys());
+        verify(dataStorage, never()).putValue(anyString(), anyString());
+        verify(dataStorage, never()).flush();
+    }
+
+    @Test
+    public void compact_deadKeyPastRetention_removesKeyAndCountsBytes() {
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        // The accented character takes two bytes in UTF-8
+        long expectedBytes = DEAD_KEY.length() + DEAD_VALUE.length() + 1;
+        assertEquals(1, result.getReclaimedKeys());
+        assertEquals(expectedBytes, result.getReclaimedBytes());
+        assertEquals(1, compactor.getReclaimedKeys());
+        assertEquals(expectedBytes, compactor.getReclaimedBytes());
+        verify(dataStorage).putValue(DEAD_KEY, null);
+        verify(dataStorage, never()).putValue(LIVE_KEY, null);
+        verify(dataStorage).flush();
+    }
+
+    @Test
+    public void compact_deadKeyWithinRetention_keepsKey() {
+        compactor = new StateCompactor(0, TimeUnit.HOURS.toMillis(1));
+
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        assertEquals(0, result.getReclaimedKeys());
+        verify(dataStorage, never()).putValue(anyString(), anyString());
+    }
+
+    @Test
+    public void compact_keyLiveAgain_restartsRetention() {
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, ImmutableSet.of(LIVE_KEY, DEAD_KEY));
+
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        assertEquals(0, result.getReclaimedKeys());
+        verify(dataStorage, never()).putValue(anyString(), anyString());
+    }
+
+    @Test
+    public void compact_otherStorage_tracksDeadKeysSeparately() {
+        compactor.compact("bt2_trigger1", dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        assertEquals(0, result.getReclaimedKeys());
+    }
+
+    @Test
+    public void compact_keysOutsidePrefix_areNeverRemoved() {
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        verify(dataStorage, never()).putValue("pullrequest_index_ArcBees_GWTP", null);
+    }
+
+    @Test
+    public void compact_emptyStorage_reclaimsNothing() {
+        given(dataStorage.getValues()).willReturn(null);
+
+        StateCompactor.CompactionResult result = compactor.compact(STORAGE_NAME, dataStorage, KEY_PREFIX, LIVE_KEYS);
+
+        assertEquals(0, result.getReclaimedKeys());
+        assertEquals(0, result.getReclaimedBytes());
+    }
+}
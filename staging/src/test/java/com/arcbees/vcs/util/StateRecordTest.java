@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateRecordTest {
+    @Test
+    public void format_escapesSeparatorsAndBackslashes() {
+        StateRecord record = new StateRecord(1).add("feature|one").add("C:\\builds");
+
+        assertEquals("@v1|feature\\|one|C:\\\\builds", record.format());
+    }
+
+    @Test
+    public void parse_formattedRecord_roundTripsEscapedFields() {
+        String value = new StateRecord(1).add("a|b\\c|").add("\\").add("plain").format();
+
+        StateRecord record = StateRecord.parse(value);
+
+        assertEquals(1, record.getVersion());
+        assertEquals("a|b\\c|", record.getString(0));
+        assertEquals("\\", record.getString(1));
+        assertEquals("plain", record.getString(2));
+    }
+
+    @Test
+    public void parse_formattedRecord_roundTripsTypedAndMissingFields() {
+        String value = new StateRecord(3).add(42).add(null).add(1234567890123L).add(true).add("").format();
+
+        StateRecord record = StateRecord.parse(value);
+
+        assertEquals(3, record.getVersion());
+        assertEquals(Integer.valueOf(42), record.getInteger(0));
+        assertNull(record.getString(1));
+        assertNull(record.getInteger(1));
+        assertEquals(Long.valueOf(1234567890123L), record.getLong(2));
+        assertTrue(record.getBoolean(3));
+        assertNull(record.getString(4));
+        assertNull(record.getString(5));
+        assertFalse(record.getBoolean(5));
+    }
+
+    @Test
+    public void parse_versionOnly_hasNoFields() {
+        StateRecord record = StateRecord.parse("@v2");
+
+        assertEquals(2, record.getVersion());
+        assertNull(record.getString(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_invalidVersion_throws() {
+        StateRecord.parse("@vx|42");
+    }
+
+    @Test
+    public void isRecord_onlyMatchesVersionedValues() {
+        assertTrue(StateRecord.isRecord("@v1|42"));
+        assertFalse(StateRecord.isRecord("{\"pullRequest\":{}}"));
+        assertFalse(StateRecord.isRecord(null));
+    }
+}
@@ -18,17 +18,23 @@ package com.arcbees.vcs;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.CharEncoding;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.Credentials;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.auth.BasicScheme;
@@ -39,13 +45,22 @@ import com.arcbees.vcs.model.Branch;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequestTarget;
 import com.arcbees.vcs.model.PullRequests;
+import com.arcbees.vcs.util.ConditionalRequestCache;
+import com.arcbees.vcs.util.ConditionalRequestCache.CachedResponse;
 import com.arcbees.vcs.util.HttpClientWrapper;
 import com.arcbees.vcs.util.UnexpectedHttpStatusException;
+import com.google.common.base.Charsets;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
 public abstract class AbstractVcsApi implements VcsApi {
+    private static final String OPEN_STATE = "open";
+    private static final String DECLINED_STATE = "declined";
+    private static final String SUPERSEDED_STATE = "superseded";
+
     protected HttpResponse executeRequest(HttpClientWrapper httpClient,
                                           HttpUriRequest request,
                                           Credentials credentials,
@@ -66,28 +81,91 @@ public abstract class AbstractVcsApi implements VcsApi {
         try {
             HttpResponse httpResponse = doExecuteRequest(httpClient, request, credentials, authToken);
 
-            HttpEntity entity = httpResponse.getEntity();
-            if (entity == null) {
-                throw new IOException(
-                        "Failed to complete request. Empty response. Status: " + httpResponse.getStatusLine());
+            return readResponse(httpResponse, gson, clazz);
+        } finally {
+            request.abort();
+        }
+    }
+
+    protected <T> T processCachedResponse(HttpClientWrapper httpClient,
+                                          HttpGet request,
+                                          Credentials credentials,
+                                          String authToken,
+                                          Gson gson,
+                                          Class<T> clazz,
+                                          ConditionalRequestCache responseCache) throws IOException {
+        String cacheKey = responseCache.createKey(request.getURI().toString(), credentials, authToken);
+        CachedResponse cachedResponse = responseCache.get(cacheKey);
+
+        if (cachedResponse != null) {
+            if (cachedResponse.getEtag() != null) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, cachedResponse.getEtag());
             }
+            if (cachedResponse.getLastModified() != null) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cachedResponse.getLastModified());
+            }
+        }
+
+        try {
+            HttpResponse httpResponse = doExecuteRequest(httpClient, request, credentials, authToken);
+
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedResponse != null) {
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+                responseCache.recordHit();
 
-            try {
-                return readEntity(clazz, entity, gson);
-            } finally {
-                EntityUtils.consumeQuietly(entity);
+                return clazz.cast(cachedResponse.getValue());
             }
+
+            responseCache.recordMiss();
+            T value = readResponse(httpResponse, gson, clazz);
+            readResponseHeaders(httpResponse, value);
+
+            String etag = getHeaderValue(httpResponse, HttpHeaders.ETAG);
+            String lastModified = getHeaderValue(httpResponse, HttpHeaders.LAST_MODIFIED);
+            if (etag != null || lastModified != null) {
+                responseCache.put(cacheKey, new CachedResponse(etag, lastModified, value));
+            } else {
+                responseCache.invalidate(cacheKey);
+            }
+
+            return value;
         } finally {
             request.abort();
         }
     }
 
+    protected <T> T readResponse(HttpResponse httpResponse, Gson gson, Class<T> clazz) throws IOException {
+        HttpEntity entity = httpResponse.getEntity();
+        if (entity == null) {
+            throw new IOException(
+                    "Failed to complete request. Empty response. Status: " + httpResponse.getStatusLine());
+        }
+
+        try {
+            return readEntity(clazz, entity, gson);
+        } finally {
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
+
+    protected void readResponseHeaders(HttpResponse httpResponse, Object value) {
+    }
+
     protected <T> T readEntity(Class<T> clazz, HttpEntity entity, Gson gson) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        entity.writeTo(outputStream);
-        String json = outputStream.toString(CharEncoding.UTF_8);
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+        if (charset == null) {
+            charset = Charsets.UTF_8;
+        }
+
+        InputStream inputStream = entity.getContent();
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(inputStream, charset));
 
-        return gson.fromJson(json, clazz);
+            return gson.fromJson(reader, clazz);
+        } finally {
+            inputStream.close();
+        }
     }
 
     protected void includeAuthentication(HttpRequest request,
@@ -125,6 +203,67 @@ public abstract class AbstractVcsApi implements VcsApi {
         }).orNull();
     }
 
+    protected <T extends PullRequest> List<T> collectPullRequests(PullRequestPageIterator pages, Class<T> clazz)
+            throws IOException {
+        List<T> pullRequests = Lists.newArrayList();
+
+        while (pages.hasNext()) {
+            PullRequests<?> page = pages.next();
+
+            if (page.getPullRequests() != null) {
+                for (PullRequest pullRequest : page.getPullRequests()) {
+                    pullRequests.add(clazz.cast(pullRequest));
+                }
+            }
+        }
+
+        return pullRequests;
+    }
+
+    protected PullRequest getPullRequestForBranchFromListings(String branchName) throws IOException {
+        PullRequest pullRequestForBranch = findPullRequestForBranch(branchName, getOpenedPullRequests());
+
+        if (pullRequestForBranch == null) {
+            pullRequestForBranch = findPullRequestForBranch(branchName, getMergedPullRequests());
+        }
+
+        return pullRequestForBranch;
+    }
+
+    protected PullRequest selectPullRequestForBranch(String branchName, PullRequests<?> pullRequests) {
+        PullRequest firstMatch = null;
+
+        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+            Branch branch = pullRequest.getSource().getBranch();
+
+            if (branch != null && branchName.equals(branch.getName())) {
+                String status = pullRequest.getStatus();
+                if (OPEN_STATE.equalsIgnoreCase(status)) {
+                    return pullRequest;
+                }
+                // Only the merged (or closed, on GitHub) pull request may stand in for an open one
+                if (firstMatch == null && !DECLINED_STATE.equalsIgnoreCase(status)
+                        && !SUPERSEDED_STATE.equalsIgnoreCase(status)) {
+                    firstMatch = pullRequest;
+                }
+            }
+        }
+
+        return firstMatch;
+    }
+
+    protected boolean isFilterUnsupported(UnexpectedHttpStatusException e) {
+        int statusCode = e.getStatusCode();
+
+        return statusCode == HttpURLConnection.HTTP_BAD_REQUEST || statusCode == HttpURLConnection.HTTP_NOT_FOUND;
+    }
+
+    private String getHeaderValue(HttpResponse httpResponse, String name) {
+        Header header = httpResponse.getFirstHeader(name);
+
+        return header == null ? null : header.getValue();
+    }
+
     private HttpResponse doExecuteRequest(HttpClientWrapper httpClient, HttpUriRequest request, Credentials credentials, String authToken)
             throws IOException {
         Logger lgr = Logger.getLogger(AbstractVcsApi.class.getName());
@@ -139,7 +278,8 @@ public abstract class AbstractVcsApi implements VcsApi {
 
         int statusCode = httpResponse.getStatusLine().getStatusCode();
         lgr.log(Level.INFO, "doExecuteRequest status: " + statusCode);
-        if (statusCode != HttpURLConnection.HTTP_OK && statusCode != HttpURLConnection.HTTP_CREATED && statusCode != HttpURLConnection.HTTP_NO_CONTENT) {
+        if (statusCode != HttpURLConnection.HTTP_OK && statusCode != HttpURLConnection.HTTP_CREATED && statusCode != HttpURLConnection.HTTP_NO_CONTENT
+                && statusCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             httpResponse.getEntity().writeTo(outputStream);
             String json = outputStream.toString(CharEncoding.UTF_8);
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs;
+
+import java.util.concurrent.Callable;
+
+import com.arcbees.vcs.model.Comment;
+import com.arcbees.vcs.model.CommitStatus;
+import com.arcbees.vcs.model.PullRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import jetbrains.buildServer.serverSide.SRunningBuild;
+
+public interface AsyncVcsApi {
+    ListenableFuture<PullRequest> getPullRequestForBranch(String branchName);
+
+    ListenableFuture<Comment> postComment(Integer pullRequestId, String comment);
+
+    ListenableFuture<Void> deleteComment(Integer pullRequestId, Long commentId);
+
+    ListenableFuture<Void> updateStatus(String commitHash, String message, CommitStatus status, String targetUrl,
+                                        SRunningBuild build);
+
+    ListenableFuture<Void> approvePullRequest(Integer pullRequestId, String approvalStatus);
+
+    <T> ListenableFuture<T> submit(Callable<T> task);
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.arcbees.vcs.model.Comment;
+import com.arcbees.vcs.model.CommitStatus;
+import com.arcbees.vcs.model.PullRequest;
+import com.arcbees.vcs.util.CoalescingTaskQueue;
+import com.arcbees.vcs.util.RateLimitScheduler;
+import com.arcbees.vcs.util.RateLimitedException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import jetbrains.buildServer.serverSide.SRunningBuild;
+
+public class ExecutorAsyncVcsApi implements AsyncVcsApi {
+    private interface Attempt<T> {
+        ListenableFuture<T> start(boolean retry);
+    }
+
+    private final VcsApi vcsApi;
+    private final ListeningExecutorService executorService;
+    private final CoalescingTaskQueue statusUpdates;
+    private final ScheduledExecutorService retryScheduler;
+    private final long maxRetryWait;
+
+    public ExecutorAsyncVcsApi(VcsApi vcsApi,
+                               ListeningExecutorService executorService) {
+        this(vcsApi, executorService, new CoalescingTaskQueue(), null, 0);
+    }
+
+    public ExecutorAsyncVcsApi(VcsApi vcsApi,
+                               ListeningExecutorService executorService,
+                               CoalescingTaskQueue statusUpdates,
+                               ScheduledExecutorService retryScheduler,
+                               long maxRetryWait) {
+        this.vcsApi = vcsApi;
+        this.executorService = executorService;
+        this.statusUpdates = statusUpdates;
+        this.retryScheduler = retryScheduler;
+        this.maxRetryWait = maxRetryWait;
+    }
+
+    @Override
+    public ListenableFuture<PullRequest> getPullRequestForBranch(final String branchName) {
+        return submit(new Callable<PullRequest>() {
+            @Override
+            public PullRequest call() throws Exception {
+                return vcsApi.getPullRequestForBranch(branchName);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Comment> postComment(final Integer pullRequestId, final String comment) {
+        return submit(new Callable<Comment>() {
+            @Override
+            public Comment call() throws Exception {
+                return vcsApi.postComment(pullRequestId, comment);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteComment(final Integer pullRequestId, final Long commentId) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                vcsApi.deleteComment(pullRequestId, commentId);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> updateStatus(final String commitHash,
+                                               final String message,
+                                               final CommitStatus status,
+                                               final String targetUrl,
+                                               final SRunningBuild build) {
+        final String key = commitHash + "|" + build.getBuildTypeId();
+        final Callable<Void> update = RateLimitScheduler.withPriority(RateLimitScheduler.Priority.HIGH,
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        vcsApi.updateStatus(commitHash, message, status, targetUrl, build);
+                        return null;
+                    }
+                });
+
+        return withRetry(new Attempt<Void>() {
+            @Override
+            public ListenableFuture<Void> start(boolean retry) {
+                if (!retry) {
+                    return statusUpdates.submit(key, update, executorService);
+                }
+
+                ListenableFuture<Void> resubmitted = statusUpdates.submitIfIdle(key, update, executorService);
+
+                return resubmitted == null ? Futures.<Void>immediateFuture(null) : resubmitted;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> approvePullRequest(final Integer pullRequestId, final String approvalStatus) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                vcsApi.approvePullRequest(pullRequestId, approvalStatus);
+                return null;
+            }
+        });
+    }
+
+    // Everything sent through here publishes build results, so it runs ahead of polling in the rate limit
+    @Override
+    public <T> ListenableFuture<T> submit(Callable<T> task) {
+        final Callable<T> highPriorityTask = RateLimitScheduler.withPriority(RateLimitScheduler.Priority.HIGH, task);
+
+        return withRetry(new Attempt<T>() {
+            @Override
+            public ListenableFuture<T> start(boolean retry) {
+                try {
+                    return executorService.submit(highPriorityTask);
+                } catch (RejectedExecutionException e) {
+                    return Futures.immediateFailedFuture(e);
+                }
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> withRetry(Attempt<T> attempt) {
+        if (retryScheduler == null) {
+            return attempt.start(false);
+        }
+
+        SettableFuture<T> result = SettableFuture.create();
+        run(attempt, false, result, System.currentTimeMillis() + maxRetryWait);
+
+        return result;
+    }
+
+    private <T> void run(final Attempt<T> attempt,
+                         boolean retry,
+                         final SettableFuture<T> result,
+                         final long deadline) {
+        Futures.addCallback(attempt.start(retry), new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                long retryAt = t instanceof RateLimitedException ? ((RateLimitedException) t).getRetryAt() : 0;
+                if (retryAt <= 0 || retryAt > deadline) {
+                    result.setException(t);
+                    return;
+                }
+
+                try {
+                    retryScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            ExecutorAsyncVcsApi.this.run(attempt, true, result, deadline);
+                        }
+                    }, Math.max(0, retryAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    result.setException(t);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.arcbees.vcs.model.PullRequests;
+import com.google.common.collect.Sets;
+
+public abstract class PullRequestPageIterator {
+    private final String firstPageUrl;
+    private final Set<String> visitedPageUrls = Sets.newHashSet();
+
+    private String nextPageUrl;
+
+    protected PullRequestPageIterator(String firstPageUrl) {
+        this.firstPageUrl = firstPageUrl;
+        this.nextPageUrl = firstPageUrl;
+    }
+
+    public boolean hasNext() {
+        return nextPageUrl != null;
+    }
+
+    public PullRequests next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String pageUrl = nextPageUrl;
+        visitedPageUrls.add(pageUrl);
+
+        PullRequests page = fetchPage(pageUrl);
+        String followingPageUrl = page == null || page.getPullRequests() == null || page.getPullRequests().isEmpty()
+                ? null : getNextPageUrl(pageUrl, page);
+
+        nextPageUrl = followingPageUrl == null || visitedPageUrls.contains(followingPageUrl) ? null : followingPageUrl;
+
+        return page;
+    }
+
+    public int getPageCount() {
+        return visitedPageUrls.size();
+    }
+
+    protected String getFirstPageUrl() {
+        return firstPageUrl;
+    }
+
+    protected abstract PullRequests fetchPage(String pageUrl) throws IOException;
+
+    protected abstract String getNextPageUrl(String pageUrl, PullRequests page);
+}
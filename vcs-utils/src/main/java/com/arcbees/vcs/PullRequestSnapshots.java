@@ -0,0 +1,137 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.arcbees.vcs.model.Branch;
+import com.arcbees.vcs.model.PullRequest;
+import com.arcbees.vcs.model.PullRequests;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class PullRequestSnapshots {
+    private static final String TTL_PROPERTY = "arcbees.vcs.snapshot.ttlSeconds";
+    private static final long DEFAULT_TTL_SECONDS = 20;
+    private static final String OPENED = "opened";
+    private static final String MERGED = "merged";
+
+    private final VcsApiFactories vcsApiFactories;
+    private final Cache<String, PullRequests> snapshots;
+
+    public PullRequestSnapshots(VcsApiFactories vcsApiFactories) {
+        this(vcsApiFactories, TeamCityProperties.getLong(TTL_PROPERTY, DEFAULT_TTL_SECONDS));
+    }
+
+    public PullRequestSnapshots(VcsApiFactories vcsApiFactories, long ttlSeconds) {
+        this.vcsApiFactories = vcsApiFactories;
+        this.snapshots = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public PullRequests getOpenedPullRequests(final VcsPropertiesHelper vcsPropertiesHelper) throws IOException {
+        return getSnapshot(getKey(vcsPropertiesHelper, OPENED), new Callable<PullRequests>() {
+            @Override
+            public PullRequests call() throws IOException {
+                return vcsApiFactories.create(vcsPropertiesHelper).getOpenedPullRequests();
+            }
+        });
+    }
+
+    public PullRequestPageIterator getMergedPullRequestPages(VcsPropertiesHelper vcsPropertiesHelper) {
+        final PullRequestPageIterator pages = vcsApiFactories.create(vcsPropertiesHelper).getMergedPullRequestPages();
+        final String key = getKey(vcsPropertiesHelper, MERGED);
+
+        return new PullRequestPageIterator(pages.getFirstPageUrl()) {
+            @Override
+            protected PullRequests fetchPage(final String pageUrl) throws IOException {
+                return getSnapshot(key + "|" + pageUrl, new Callable<PullRequests>() {
+                    @Override
+                    public PullRequests call() throws IOException {
+                        return pages.fetchPage(pageUrl);
+                    }
+                });
+            }
+
+            @Override
+            protected String getNextPageUrl(String pageUrl, PullRequests page) {
+                return pages.getNextPageUrl(pageUrl, page);
+            }
+        };
+    }
+
+    public PullRequest getPullRequestForBranch(VcsPropertiesHelper vcsPropertiesHelper, String branchName)
+            throws IOException {
+        PullRequest pullRequest = null;
+
+        PullRequests openedPullRequests = snapshots.getIfPresent(getKey(vcsPropertiesHelper, OPENED));
+        if (openedPullRequests != null) {
+            pullRequest = findPullRequestForBranch(openedPullRequests, branchName);
+        }
+
+        if (pullRequest == null) {
+            pullRequest = vcsApiFactories.create(vcsPropertiesHelper).getPullRequestForBranch(branchName);
+        }
+
+        return pullRequest;
+    }
+
+    public void invalidate(VcsPropertiesHelper vcsPropertiesHelper) {
+        String repositoryKey = vcsPropertiesHelper.getRepositoryKey();
+
+        for (String key : snapshots.asMap().keySet()) {
+            if (key.startsWith(repositoryKey)) {
+                snapshots.invalidate(key);
+            }
+        }
+    }
+
+    private PullRequests getSnapshot(String key, Callable<PullRequests> loader) throws IOException {
+        try {
+            return snapshots.get(key, loader);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private PullRequest findPullRequestForBranch(PullRequests<?> pullRequests, String branchName) {
+        for (PullRequest pullRequest : pullRequests.getPullRequests()) {
+            Branch branch = pullRequest.getSource().getBranch();
+
+            if (branch != null && branchName.equals(branch.getName())) {
+                return pullRequest;
+            }
+        }
+
+        return null;
+    }
+
+    private String getKey(VcsPropertiesHelper vcsPropertiesHelper, String state) {
+        return vcsPropertiesHelper.getRepositoryKey() + state;
+    }
+}
@@ -30,6 +30,10 @@ public interface VcsApi {
 
     PullRequests getMergedPullRequests() throws IOException;
 
+    PullRequestPageIterator getOpenedPullRequestPages();
+
+    PullRequestPageIterator getMergedPullRequestPages();
+
     Comment postComment(Integer pullRequestId,
                         String comment) throws IOException;
 
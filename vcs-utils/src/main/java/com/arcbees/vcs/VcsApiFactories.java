@@ -17,18 +17,73 @@
 package com.arcbees.vcs;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.arcbees.vcs.util.CoalescingTaskQueue;
+import com.arcbees.vcs.util.RateLimitScheduler;
+import com.arcbees.vcs.util.VcsRequestExecutor;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
 @Component
 public class VcsApiFactories {
+    private static final String CACHE_EXPIRY_PROPERTY = "arcbees.vcs.apiCache.expireMinutes";
+    private static final String CACHE_SIZE_PROPERTY = "arcbees.vcs.apiCache.maxSize";
+    private static final int DEFAULT_CACHE_EXPIRY = 60;
+    private static final int DEFAULT_CACHE_SIZE = 500;
+
+    private final Cache<String, VcsApi> vcsApis = CacheBuilder.newBuilder()
+            .expireAfterAccess(TeamCityProperties.getInteger(CACHE_EXPIRY_PROPERTY, DEFAULT_CACHE_EXPIRY),
+                    TimeUnit.MINUTES)
+            .maximumSize(TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE))
+            .build();
+
     @Autowired
     private List<VcsApiFactory> factories;
     @Autowired
     private VcsTypes vcsTypes;
+    @Autowired
+    private VcsRequestExecutor vcsRequestExecutor;
+    @Autowired
+    private CoalescingTaskQueue statusUpdates;
+    @Autowired
+    private RateLimitScheduler rateLimitScheduler;
 
     public VcsApi create(VcsPropertiesHelper vcsPropertiesHelper) {
+        String key = vcsPropertiesHelper.getRepositoryKey();
+
+        VcsApi vcsApi = vcsApis.getIfPresent(key);
+        if (vcsApi == null) {
+            vcsApi = createUncached(vcsPropertiesHelper);
+
+            if (vcsApi != null) {
+                vcsApis.put(key, vcsApi);
+            }
+        }
+
+        return vcsApi;
+    }
+
+    public AsyncVcsApi createAsync(VcsPropertiesHelper vcsPropertiesHelper) {
+        VcsApi vcsApi = create(vcsPropertiesHelper);
+
+        if (vcsApi == null) {
+            return null;
+        }
+
+        String host = vcsPropertiesHelper.getVcsType() + "|" + Strings.nullToEmpty(vcsPropertiesHelper.getServerUrl());
+
+        return new ExecutorAsyncVcsApi(vcsApi, vcsRequestExecutor.getExecutorService(host), statusUpdates,
+                vcsRequestExecutor.getRetryScheduler(), rateLimitScheduler.getMaxHighPriorityWait());
+    }
+
+    private VcsApi createUncached(VcsPropertiesHelper vcsPropertiesHelper) {
         VcsType vcsType = vcsTypes.getVcsType(vcsPropertiesHelper.getVcsType());
         for (VcsApiFactory factory : factories) {
             if (factory.handles(vcsType)) {
@@ -18,6 +18,10 @@ package com.arcbees.vcs;
 
 import java.util.Map;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
 public class VcsPropertiesHelper {
     protected final Map<String, String> properties;
 
@@ -60,4 +64,13 @@ public class VcsPropertiesHelper {
     public String getBaseBranch() {
         return properties.get(vcsConstants.getBaseBranchKey());
     }
+
+    public String getRepositoryKey() {
+        String identity = Strings.nullToEmpty(getUserName()) + ":" + Strings.nullToEmpty(getPassword()) + ":"
+                + Strings.nullToEmpty(getAuthToken());
+        String identityHash = Hashing.sha256().hashBytes(identity.getBytes(Charsets.UTF_8)).toString();
+
+        return getVcsType() + "|" + Strings.nullToEmpty(getServerUrl()) + "|" + getRepositoryOwner() + "|"
+                + getRepositoryName() + "|" + identityHash + "|";
+    }
 }
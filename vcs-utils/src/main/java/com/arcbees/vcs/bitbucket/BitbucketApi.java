@@ -33,15 +33,20 @@ import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
 
 import com.arcbees.vcs.AbstractVcsApi;
+import com.arcbees.vcs.PullRequestPageIterator;
 import com.arcbees.vcs.bitbucket.model.BitbucketComment;
 import com.arcbees.vcs.bitbucket.model.BitbucketCommitStatus;
+import com.arcbees.vcs.bitbucket.model.BitbucketPullRequest;
 import com.arcbees.vcs.bitbucket.model.BitbucketPullRequests;
 import com.arcbees.vcs.model.Comment;
 import com.arcbees.vcs.model.CommitStatus;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequests;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.GsonDateTypeAdapter;
 import com.arcbees.vcs.util.HttpClientWrapper;
+import com.arcbees.vcs.util.UnexpectedHttpStatusException;
+import com.arcbees.vcs.util.UnusedFieldsExclusionStrategy;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -49,8 +54,13 @@ import com.google.gson.GsonBuilder;
 import jetbrains.buildServer.serverSide.SRunningBuild;
 
 public class BitbucketApi extends AbstractVcsApi {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Date.class, new GsonDateTypeAdapter())
+            .addDeserializationExclusionStrategy(new UnusedFieldsExclusionStrategy())
+            .create();
+
     private final HttpClientWrapper httpClient;
-    private final Gson gson;
+    private final ConditionalRequestCache responseCache;
     private final BitbucketApiPaths apiPaths;
     private final String repositoryOwner;
     private final String repositoryName;
@@ -59,6 +69,7 @@ public class BitbucketApi extends AbstractVcsApi {
     private final UsernamePasswordCredentials tokenCredentials;
 
     public BitbucketApi(HttpClientWrapper httpClient,
+            ConditionalRequestCache responseCache,
             BitbucketApiPaths apiPaths,
             String userName,
             String password,
@@ -66,42 +77,56 @@ public class BitbucketApi extends AbstractVcsApi {
             String repositoryOwner,
             String repositoryName) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.apiPaths = apiPaths;
         this.repositoryOwner = repositoryOwner;
         this.repositoryName = repositoryName;
         this.credentials = new UsernamePasswordCredentials(userName, password);
         this.tokenCredentials = new UsernamePasswordCredentials("noname", authToken);
         this.authToken = this.tokenCredentials.getPassword();
-        this.gson = new GsonBuilder().registerTypeAdapter(Date.class, new GsonDateTypeAdapter()).create();
     }
 
     @Override
     public PullRequests getOpenedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName);
-
-        HttpGet request = new HttpGet(requestUrl);
+        BitbucketPullRequests pullRequests = new BitbucketPullRequests();
+        pullRequests.setPullRequests(collectPullRequests(getOpenedPullRequestPages(), BitbucketPullRequest.class));
 
-        return processResponse(httpClient, request, credentials, authToken, gson, BitbucketPullRequests.class);
+        return pullRequests;
     }
 
     @Override
     public PullRequests getMergedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getMergedPullRequests(repositoryOwner, repositoryName);
+        return getMergedPullRequestPages().next();
+    }
 
-        HttpGet request = new HttpGet(requestUrl);
+    @Override
+    public PullRequestPageIterator getOpenedPullRequestPages() {
+        return createPageIterator(apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName));
+    }
 
-        return processResponse(httpClient, request, credentials, authToken, gson, BitbucketPullRequests.class);
+    @Override
+    public PullRequestPageIterator getMergedPullRequestPages() {
+        return createPageIterator(apiPaths.getMergedPullRequests(repositoryOwner, repositoryName));
     }
 
     @Override
-    public PullRequest getPullRequestForBranch(final String branchName) throws IOException {
-        PullRequest pullRequestForBranch = findPullRequestForBranch(branchName, getOpenedPullRequests());
+    public PullRequest getPullRequestForBranch(String branchName) throws IOException {
+        String requestUrl = apiPaths.getPullRequestsForBranch(repositoryOwner, repositoryName, branchName);
 
-        if (pullRequestForBranch == null) {
-            pullRequestForBranch = findPullRequestForBranch(branchName, getMergedPullRequests());
-        }
+        HttpGet request = new HttpGet(requestUrl);
+
+        try {
+            PullRequests pullRequests = processCachedResponse(httpClient, request, credentials, authToken, GSON,
+                    BitbucketPullRequests.class, responseCache);
+
+            return selectPullRequestForBranch(branchName, pullRequests);
+        } catch (UnexpectedHttpStatusException e) {
+            if (!isFilterUnsupported(e)) {
+                throw e;
+            }
 
-        return pullRequestForBranch;
+            return getPullRequestForBranchFromListings(branchName);
+        }
     }
 
     @Override
@@ -125,7 +150,7 @@ public class BitbucketApi extends AbstractVcsApi {
 
         request.setEntity(new UrlEncodedFormEntity(postParameters));
 
-        return processResponse(httpClient, request, credentials, authToken, gson, BitbucketComment.class);
+        return processResponse(httpClient, request, credentials, authToken, GSON, BitbucketComment.class);
     }
 
     @Override
@@ -137,7 +162,7 @@ public class BitbucketApi extends AbstractVcsApi {
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType()));
 
-        String entityAsJson = gson.toJson(
+        String entityAsJson = GSON.toJson(
                 new BitbucketCommitStatus(status, build.getBuildTypeId(), build.getFullName(), message, targetUrl));
 
         request.setEntity(new StringEntity(entityAsJson));
@@ -171,4 +196,21 @@ public class BitbucketApi extends AbstractVcsApi {
 
         executeRequest(httpClient, request, credentials, authToken);
     }
+
+    private PullRequestPageIterator createPageIterator(String firstPageUrl) {
+        return new PullRequestPageIterator(firstPageUrl) {
+            @Override
+            protected PullRequests fetchPage(String pageUrl) throws IOException {
+                HttpGet request = new HttpGet(pageUrl);
+
+                return processCachedResponse(httpClient, request, credentials, authToken, GSON, BitbucketPullRequests.class,
+                        responseCache);
+            }
+
+            @Override
+            protected String getNextPageUrl(String pageUrl, PullRequests page) {
+                return ((BitbucketPullRequests) page).getNext();
+            }
+        };
+    }
 }
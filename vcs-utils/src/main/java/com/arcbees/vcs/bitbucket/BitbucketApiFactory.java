@@ -20,15 +20,19 @@ import com.arcbees.vcs.VcsApi;
 import com.arcbees.vcs.VcsApiFactory;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.VcsType;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.HttpClientWrapper;
 
 public class BitbucketApiFactory implements VcsApiFactory {
     private final HttpClientWrapper httpClient;
+    private final ConditionalRequestCache responseCache;
     private final BitbucketVcsType bitbucketVcsType;
 
     public BitbucketApiFactory(HttpClientWrapper httpClient,
+                               ConditionalRequestCache responseCache,
                                BitbucketVcsType bitbucketVcsType) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.bitbucketVcsType = bitbucketVcsType;
     }
 
@@ -39,7 +43,7 @@ public class BitbucketApiFactory implements VcsApiFactory {
 
     @Override
     public VcsApi create(VcsPropertiesHelper vcsPropertiesHelper) {
-        return new BitbucketApi(httpClient, new BitbucketApiPaths(vcsPropertiesHelper.getServerUrl()),
+        return new BitbucketApi(httpClient, responseCache, new BitbucketApiPaths(vcsPropertiesHelper.getServerUrl()),
                 vcsPropertiesHelper.getUserName(),
                 vcsPropertiesHelper.getPassword(),
                 vcsPropertiesHelper.getAuthToken(),
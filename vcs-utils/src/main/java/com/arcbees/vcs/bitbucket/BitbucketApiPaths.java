@@ -16,6 +16,12 @@
 
 package com.arcbees.vcs.bitbucket;
 
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
 public class BitbucketApiPaths {
     private static final String API_2 = "/2.0/";
     private static final String API_1 = "/1.0/";
@@ -27,6 +33,8 @@ public class BitbucketApiPaths {
     private static final String APPROVE = "/approve";
     private static final String SLASH = "/";
     private static final String STATE_MERGED = "?state=MERGED";
+    private static final String QUERY = "?";
+    private static final String PAGE_SIZE = "?pagelen=50";
 
     private final String baseUrl;
 
@@ -40,13 +48,22 @@ public class BitbucketApiPaths {
 
     public String getOpenedPullRequests(String repositoryOwner,
                                         String repositoryName) {
-        return getPullRequests(repositoryOwner, repositoryName);
+        return getPullRequests(repositoryOwner, repositoryName) + PAGE_SIZE;
     }
 
     public String getMergedPullRequests(String repositoryOwner, String repositoryName) {
         return getPullRequests(repositoryOwner, repositoryName) + STATE_MERGED;
     }
 
+    public String getPullRequestsForBranch(String repositoryOwner, String repositoryName, String branchName) {
+        String branchQuery = "source.branch.name=\"" + branchName.replace("\"", "\\\"") + "\"";
+
+        return getPullRequests(repositoryOwner, repositoryName) + QUERY + URLEncodedUtils.format(Lists.newArrayList(
+                new BasicNameValuePair("q", branchQuery),
+                new BasicNameValuePair("state", "OPEN"),
+                new BasicNameValuePair("state", "MERGED")), Charsets.UTF_8);
+    }
+
     public String getPullRequest(String repositoryOwner,
                                  String repositoryName,
                                  Integer pullRequestId) {
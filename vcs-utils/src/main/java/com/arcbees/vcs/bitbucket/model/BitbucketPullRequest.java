@@ -16,6 +16,7 @@
 
 package com.arcbees.vcs.bitbucket.model;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -37,7 +38,7 @@ public class BitbucketPullRequest implements PullRequest<BitbucketPullRequestTar
     private BitbucketPullRequestTarget source;
     private BitbucketPullRequestTarget destination;
     @Expose(serialize = false, deserialize = false)
-    private List<String> branchChain = Lists.newArrayList();
+    private volatile List<String> branchChain = Lists.newArrayList();
 
     @Override
     public String getStatus() {
@@ -126,9 +127,6 @@ public class BitbucketPullRequest implements PullRequest<BitbucketPullRequestTar
 
     @Override
     public void setBranchChain(List<String> chain) {
-        branchChain.clear();
-        if (chain != null) {
-            branchChain.addAll(chain);
-        }
+        branchChain = chain == null ? Lists.<String>newArrayList() : Collections.unmodifiableList(chain);
     }
 }
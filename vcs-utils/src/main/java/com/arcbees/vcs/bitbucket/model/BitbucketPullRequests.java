@@ -25,6 +25,7 @@ import com.google.gson.annotations.SerializedName;
 public class BitbucketPullRequests implements PullRequests<BitbucketPullRequest> {
     @SerializedName("values")
     private List<BitbucketPullRequest> pullRequests;
+    private String next;
 
     @Override
     public List<? extends PullRequest> getPullRequests() {
@@ -35,4 +36,12 @@ public class BitbucketPullRequests implements PullRequests<BitbucketPullRequest>
     public void setPullRequests(List<BitbucketPullRequest> pullRequests) {
         this.pullRequests = pullRequests;
     }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
 }
@@ -19,7 +19,9 @@ package com.arcbees.vcs.github;
 import java.io.IOException;
 import java.util.Date;
 
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -30,9 +32,11 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 
 import com.arcbees.vcs.AbstractVcsApi;
+import com.arcbees.vcs.PullRequestPageIterator;
 import com.arcbees.vcs.github.model.GitHubComment;
 import com.arcbees.vcs.github.model.GitHubCommitStatus;
 import com.arcbees.vcs.github.model.GitHubCreateComment;
+import com.arcbees.vcs.github.model.GitHubPullRequest;
 import com.arcbees.vcs.github.model.GitHubPullRequests;
 import com.arcbees.vcs.github.util.GitHubPullRequestsTypeAdapter;
 import com.arcbees.vcs.model.Comment;
@@ -40,8 +44,11 @@ import com.arcbees.vcs.model.CommitStatus;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequests;
 import com.arcbees.vcs.util.CommitStatusTypeAdapter;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.GsonDateTypeAdapter;
 import com.arcbees.vcs.util.HttpClientWrapper;
+import com.arcbees.vcs.util.UnexpectedHttpStatusException;
+import com.arcbees.vcs.util.UnusedFieldsExclusionStrategy;
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -49,58 +56,78 @@ import com.google.gson.GsonBuilder;
 import jetbrains.buildServer.serverSide.SRunningBuild;
 
 public class GitHubApi extends AbstractVcsApi {
+    private static final String LINK_HEADER = "Link";
+    private static final String NEXT_RELATION = "rel=\"next\"";
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Date.class, new GsonDateTypeAdapter())
+            .registerTypeAdapterFactory(new GitHubPullRequestsTypeAdapter())
+            .registerTypeAdapter(CommitStatus.class, new CommitStatusTypeAdapter())
+            .addDeserializationExclusionStrategy(new UnusedFieldsExclusionStrategy())
+            .create();
+
     private final HttpClientWrapper httpClient;
-    private final Gson gson;
+    private final ConditionalRequestCache responseCache;
     private final GitHubApiPaths apiPaths;
     private final String repositoryOwner;
     private final String repositoryName;
     private final UsernamePasswordCredentials credentials;
 
     public GitHubApi(HttpClientWrapper httpClient,
+                     ConditionalRequestCache responseCache,
                      GitHubApiPaths apiPaths,
                      String userName,
                      String password,
                      String repositoryOwner,
                      String repositoryName) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.apiPaths = apiPaths;
         this.repositoryOwner = repositoryOwner;
         this.repositoryName = repositoryName;
         this.credentials = new UsernamePasswordCredentials(userName, password);
-        this.gson = new GsonBuilder()
-                .registerTypeAdapter(Date.class, new GsonDateTypeAdapter())
-                .registerTypeAdapter(GitHubPullRequests.class, new GitHubPullRequestsTypeAdapter())
-                .registerTypeAdapter(CommitStatus.class, new CommitStatusTypeAdapter())
-                .create();
     }
 
     @Override
     public PullRequests getOpenedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName);
-
-        HttpGet request = new HttpGet(requestUrl);
+        GitHubPullRequests pullRequests = new GitHubPullRequests();
+        pullRequests.setPullRequests(collectPullRequests(getOpenedPullRequestPages(), GitHubPullRequest.class));
 
-        return processResponse(httpClient, request, credentials, null, gson, GitHubPullRequests.class);
+        return pullRequests;
     }
 
     @Override
     public PullRequests getMergedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getMergedPullRequests(repositoryOwner, repositoryName);
+        return getMergedPullRequestPages().next();
+    }
 
-        HttpGet request = new HttpGet(requestUrl);
+    @Override
+    public PullRequestPageIterator getOpenedPullRequestPages() {
+        return createPageIterator(apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName));
+    }
 
-        return processResponse(httpClient, request, credentials, null, gson, GitHubPullRequests.class);
+    @Override
+    public PullRequestPageIterator getMergedPullRequestPages() {
+        return createPageIterator(apiPaths.getMergedPullRequests(repositoryOwner, repositoryName));
     }
 
     @Override
-    public PullRequest getPullRequestForBranch(final String branchName) throws IOException {
-        PullRequest pullRequestForBranch = findPullRequestForBranch(branchName, getOpenedPullRequests());
+    public PullRequest getPullRequestForBranch(String branchName) throws IOException {
+        String requestUrl = apiPaths.getPullRequestsForBranch(repositoryOwner, repositoryName, branchName);
 
-        if (pullRequestForBranch == null) {
-            pullRequestForBranch = findPullRequestForBranch(branchName, getMergedPullRequests());
-        }
+        HttpGet request = new HttpGet(requestUrl);
 
-        return pullRequestForBranch;
+        try {
+            PullRequests pullRequests = processCachedResponse(httpClient, request, credentials, null, GSON,
+                    GitHubPullRequests.class, responseCache);
+
+            return selectPullRequestForBranch(branchName, pullRequests);
+        } catch (UnexpectedHttpStatusException e) {
+            if (!isFilterUnsupported(e)) {
+                throw e;
+            }
+
+            return getPullRequestForBranchFromListings(branchName);
+        }
     }
 
     @Override
@@ -119,9 +146,9 @@ public class GitHubApi extends AbstractVcsApi {
 
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType()));
-        request.setEntity(new ByteArrayEntity(gson.toJson(new GitHubCreateComment(comment)).getBytes(Charsets.UTF_8)));
+        request.setEntity(new ByteArrayEntity(GSON.toJson(new GitHubCreateComment(comment)).getBytes(Charsets.UTF_8)));
 
-        return processResponse(httpClient, request, credentials, null, gson, GitHubComment.class);
+        return processResponse(httpClient, request, credentials, null, GSON, GitHubComment.class);
     }
 
     @Override
@@ -133,7 +160,7 @@ public class GitHubApi extends AbstractVcsApi {
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType()));
 
-        String entityAsJson = gson.toJson(new GitHubCommitStatus(status, message, targetUrl));
+        String entityAsJson = GSON.toJson(new GitHubCommitStatus(status, message, targetUrl));
         request.setEntity(new StringEntity(entityAsJson));
 
         executeRequest(httpClient, request, credentials, null);
@@ -153,4 +180,45 @@ public class GitHubApi extends AbstractVcsApi {
     public void deletePullRequestApproval(Integer pullRequestId) throws IOException, UnsupportedOperationException {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    protected void readResponseHeaders(HttpResponse httpResponse, Object value) {
+        if (value instanceof GitHubPullRequests) {
+            Header linkHeader = httpResponse.getFirstHeader(LINK_HEADER);
+
+            ((GitHubPullRequests) value).setNextPageUrl(linkHeader == null ? null : getNextLink(linkHeader.getValue()));
+        }
+    }
+
+    private PullRequestPageIterator createPageIterator(String firstPageUrl) {
+        return new PullRequestPageIterator(firstPageUrl) {
+            @Override
+            protected PullRequests fetchPage(String pageUrl) throws IOException {
+                HttpGet request = new HttpGet(pageUrl);
+
+                return processCachedResponse(httpClient, request, credentials, null, GSON, GitHubPullRequests.class,
+                        responseCache);
+            }
+
+            @Override
+            protected String getNextPageUrl(String pageUrl, PullRequests page) {
+                return ((GitHubPullRequests) page).getNextPageUrl();
+            }
+        };
+    }
+
+    private String getNextLink(String linkHeader) {
+        for (String link : linkHeader.split(",")) {
+            String[] segments = link.split(";");
+            String url = segments[0].trim();
+
+            for (int i = 1; i < segments.length; i++) {
+                if (NEXT_RELATION.equals(segments[i].trim()) && url.startsWith("<") && url.endsWith(">")) {
+                    return url.substring(1, url.length() - 1);
+                }
+            }
+        }
+
+        return null;
+    }
 }
@@ -20,15 +20,19 @@ import com.arcbees.vcs.VcsApi;
 import com.arcbees.vcs.VcsApiFactory;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.VcsType;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.HttpClientWrapper;
 
 public class GitHubApiFactory implements VcsApiFactory {
     private final HttpClientWrapper httpClient;
+    private final ConditionalRequestCache responseCache;
     private final GitHubVcsType gitHubVcsType;
 
     public GitHubApiFactory(HttpClientWrapper httpClient,
+                            ConditionalRequestCache responseCache,
                             GitHubVcsType gitHubVcsType) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.gitHubVcsType = gitHubVcsType;
     }
 
@@ -39,7 +43,7 @@ public class GitHubApiFactory implements VcsApiFactory {
 
     @Override
     public VcsApi create(VcsPropertiesHelper vcsPropertiesHelper) {
-        return new GitHubApi(httpClient, new GitHubApiPaths(vcsPropertiesHelper.getServerUrl()),
+        return new GitHubApi(httpClient, responseCache, new GitHubApiPaths(vcsPropertiesHelper.getServerUrl()),
                 vcsPropertiesHelper.getUserName(),
                 vcsPropertiesHelper.getPassword(),
                 vcsPropertiesHelper.getRepositoryOwner(),
@@ -16,6 +16,12 @@
 
 package com.arcbees.vcs.github;
 
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
 public class GitHubApiPaths {
     private static final String REPOSITORIES = "/repos/";
     private static final String PULLREQUESTS = "/pulls";
@@ -24,6 +30,8 @@ public class GitHubApiPaths {
     private static final String STATE_MERGED = "?state=closed";
     private static final String STATUSES = "/statuses/";
     private static final String ISSUES = "/issues";
+    private static final String QUERY = "?";
+    private static final String PAGE_SIZE = "?per_page=100";
 
     private final String baseUrl;
 
@@ -37,13 +45,19 @@ public class GitHubApiPaths {
 
     public String getOpenedPullRequests(String repositoryOwner,
                                         String repositoryName) {
-        return getPullRequests(repositoryOwner, repositoryName);
+        return getPullRequests(repositoryOwner, repositoryName) + PAGE_SIZE;
     }
 
     public String getMergedPullRequests(String repositoryOwner, String repositoryName) {
         return getPullRequests(repositoryOwner, repositoryName) + STATE_MERGED;
     }
 
+    public String getPullRequestsForBranch(String repositoryOwner, String repositoryName, String branchName) {
+        return getPullRequests(repositoryOwner, repositoryName) + QUERY + URLEncodedUtils.format(Lists.newArrayList(
+                new BasicNameValuePair("state", "all"),
+                new BasicNameValuePair("head", repositoryOwner + ":" + branchName)), Charsets.UTF_8);
+    }
+
     public String getPullRequest(String repositoryOwner,
                                  String repositoryName,
                                  Integer pullRequestId) {
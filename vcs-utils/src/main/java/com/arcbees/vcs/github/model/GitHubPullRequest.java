@@ -16,6 +16,7 @@
 
 package com.arcbees.vcs.github.model;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -37,7 +38,7 @@ public class GitHubPullRequest implements PullRequest<GitHubPullRequestTarget> {
     private GitHubPullRequestTarget head;
     private GitHubPullRequestTarget base;
     @Expose(serialize = false, deserialize = false)
-    private List<String> branchChain = Lists.newArrayList();
+    private volatile List<String> branchChain = Lists.newArrayList();
 
     @Override
     public String getStatus() {
@@ -126,9 +127,6 @@ public class GitHubPullRequest implements PullRequest<GitHubPullRequestTarget> {
 
     @Override
     public void setBranchChain(List<String> chain) {
-        branchChain.clear();
-        if (chain != null) {
-            branchChain.addAll(chain);
-        }
+        branchChain = chain == null ? Lists.<String>newArrayList() : Collections.unmodifiableList(chain);
     }
 }
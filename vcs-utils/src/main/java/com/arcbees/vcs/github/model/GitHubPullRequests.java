@@ -23,6 +23,7 @@ import com.arcbees.vcs.model.PullRequests;
 
 public class GitHubPullRequests implements PullRequests<GitHubPullRequest> {
     private List<GitHubPullRequest> pullRequests;
+    private transient String nextPageUrl;
 
     @Override
     public List<? extends PullRequest> getPullRequests() {
@@ -33,4 +34,12 @@ public class GitHubPullRequests implements PullRequests<GitHubPullRequest> {
     public void setPullRequests(List<GitHubPullRequest> pullRequests) {
         this.pullRequests = pullRequests;
     }
+
+    public String getNextPageUrl() {
+        return nextPageUrl;
+    }
+
+    public void setNextPageUrl(String nextPageUrl) {
+        this.nextPageUrl = nextPageUrl;
+    }
 }
@@ -16,36 +16,65 @@
 
 package com.arcbees.vcs.github.util;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.List;
 
 import com.arcbees.vcs.github.model.GitHubPullRequest;
 import com.arcbees.vcs.github.model.GitHubPullRequests;
-import com.google.common.base.Function;
-import com.google.common.collect.FluentIterable;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-
-public class GitHubPullRequestsTypeAdapter implements JsonDeserializer<GitHubPullRequests> {
+import com.arcbees.vcs.model.PullRequest;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+public class GitHubPullRequestsTypeAdapter implements TypeAdapterFactory {
     @Override
-    public GitHubPullRequests deserialize(JsonElement json, Type typeOfT, final JsonDeserializationContext context)
-            throws JsonParseException {
-        JsonArray jsonArray = json.getAsJsonArray();
-
-        List<GitHubPullRequest> pullRequests = FluentIterable.from(jsonArray)
-                .transform(new Function<JsonElement, GitHubPullRequest>() {
-                    @Override
-                    public GitHubPullRequest apply(JsonElement input) {
-                        return context.deserialize(input, GitHubPullRequest.class);
-                    }
-                }).toImmutableList();
-
-        GitHubPullRequests gitHubPullRequests = new GitHubPullRequests();
-        gitHubPullRequests.setPullRequests(pullRequests);
-
-        return gitHubPullRequests;
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (!GitHubPullRequests.class.equals(type.getRawType())) {
+            return null;
+        }
+
+        final TypeAdapter<GitHubPullRequest> pullRequestAdapter = gson.getAdapter(GitHubPullRequest.class);
+
+        return (TypeAdapter<T>) new TypeAdapter<GitHubPullRequests>() {
+            @Override
+            public void write(JsonWriter out, GitHubPullRequests value) throws IOException {
+                if (value == null || value.getPullRequests() == null) {
+                    out.nullValue();
+                    return;
+                }
+
+                out.beginArray();
+                for (PullRequest pullRequest : value.getPullRequests()) {
+                    pullRequestAdapter.write(out, (GitHubPullRequest) pullRequest);
+                }
+                out.endArray();
+            }
+
+            @Override
+            public GitHubPullRequests read(JsonReader in) throws IOException {
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    return null;
+                }
+
+                List<GitHubPullRequest> pullRequests = Lists.newArrayList();
+                in.beginArray();
+                while (in.hasNext()) {
+                    pullRequests.add(pullRequestAdapter.read(in));
+                }
+                in.endArray();
+
+                GitHubPullRequests gitHubPullRequests = new GitHubPullRequests();
+                gitHubPullRequests.setPullRequests(pullRequests);
+
+                return gitHubPullRequests;
+            }
+        };
     }
 }
@@ -36,16 +36,21 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
 
 import com.arcbees.vcs.AbstractVcsApi;
+import com.arcbees.vcs.PullRequestPageIterator;
 import com.arcbees.vcs.model.Comment;
 import com.arcbees.vcs.model.CommitStatus;
 import com.arcbees.vcs.model.PullRequest;
 import com.arcbees.vcs.model.PullRequests;
 import com.arcbees.vcs.stash.model.StashComment;
 import com.arcbees.vcs.stash.model.StashCommitStatus;
+import com.arcbees.vcs.stash.model.StashPullRequest;
 import com.arcbees.vcs.stash.model.StashPullRequests;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.GsonDateTypeAdapter;
 import com.arcbees.vcs.util.HttpClientWrapper;
+import com.arcbees.vcs.util.RateLimitedException;
 import com.arcbees.vcs.util.UnexpectedHttpStatusException;
+import com.arcbees.vcs.util.UnusedFieldsExclusionStrategy;
 import com.google.common.base.Charsets;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -54,9 +59,13 @@ import jetbrains.buildServer.serverSide.SRunningBuild;
 
 public class StashApi extends AbstractVcsApi {
     private static final Logger LOGGER = Logger.getLogger(StashApi.class.getName());
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Date.class, new GsonDateTypeAdapter())
+            .addDeserializationExclusionStrategy(new UnusedFieldsExclusionStrategy())
+            .create();
 
     private final HttpClientWrapper httpClient;
-    private final Gson gson;
+    private final ConditionalRequestCache responseCache;
     private final StashApiPaths apiPaths;
     private final String repositoryOwner;
     private final String repositoryName;
@@ -65,6 +74,7 @@ public class StashApi extends AbstractVcsApi {
     private final UsernamePasswordCredentials tokenCredentials;
 
     public StashApi(HttpClientWrapper httpClient,
+                    ConditionalRequestCache responseCache,
                     StashApiPaths apiPaths,
                     String userName,
                     String password,
@@ -72,42 +82,56 @@ public class StashApi extends AbstractVcsApi {
                     String repositoryOwner,
                     String repositoryName) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.apiPaths = apiPaths;
         this.repositoryOwner = repositoryOwner;
         this.repositoryName = repositoryName;
         this.credentials = new UsernamePasswordCredentials(userName, password);
         this.tokenCredentials = new UsernamePasswordCredentials("noname", authToken);
         this.authToken = this.tokenCredentials.getPassword();
-        this.gson = new GsonBuilder().registerTypeAdapter(Date.class, new GsonDateTypeAdapter()).create();
     }
 
     @Override
     public PullRequests getOpenedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName);
+        StashPullRequests pullRequests = new StashPullRequests();
+        pullRequests.setPullRequests(collectPullRequests(getOpenedPullRequestPages(), StashPullRequest.class));
 
-        HttpGet request = new HttpGet(requestUrl);
-
-        return processResponse(httpClient, request, credentials, authToken, gson, StashPullRequests.class);
+        return pullRequests;
     }
 
     @Override
     public PullRequests getMergedPullRequests() throws IOException {
-        String requestUrl = apiPaths.getMergedPullRequests(repositoryOwner, repositoryName);
+        return getMergedPullRequestPages().next();
+    }
 
-        HttpGet request = new HttpGet(requestUrl);
+    @Override
+    public PullRequestPageIterator getOpenedPullRequestPages() {
+        return createPageIterator(apiPaths.getOpenedPullRequests(repositoryOwner, repositoryName));
+    }
 
-        return processResponse(httpClient, request, credentials, authToken, gson, StashPullRequests.class);
+    @Override
+    public PullRequestPageIterator getMergedPullRequestPages() {
+        return createPageIterator(apiPaths.getMergedPullRequests(repositoryOwner, repositoryName));
     }
 
     @Override
-    public PullRequest getPullRequestForBranch(final String branchName) throws IOException {
-        PullRequest pullRequestForBranch = findPullRequestForBranch(branchName, getOpenedPullRequests());
+    public PullRequest getPullRequestForBranch(String branchName) throws IOException {
+        String requestUrl = apiPaths.getPullRequestsForBranch(repositoryOwner, repositoryName, branchName);
 
-        if (pullRequestForBranch == null) {
-            pullRequestForBranch = findPullRequestForBranch(branchName, getMergedPullRequests());
-        }
+        HttpGet request = new HttpGet(requestUrl);
+
+        try {
+            PullRequests pullRequests = processCachedResponse(httpClient, request, credentials, authToken, GSON,
+                    StashPullRequests.class, responseCache);
+
+            return selectPullRequestForBranch(branchName, pullRequests);
+        } catch (UnexpectedHttpStatusException e) {
+            if (!isFilterUnsupported(e)) {
+                throw e;
+            }
 
-        return pullRequestForBranch;
+            return getPullRequestForBranchFromListings(branchName);
+        }
     }
 
     @Override
@@ -131,9 +155,9 @@ public class StashApi extends AbstractVcsApi {
 
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType()));
-        request.setEntity(new ByteArrayEntity(gson.toJson(new StashComment(comment)).getBytes(Charsets.UTF_8)));
+        request.setEntity(new ByteArrayEntity(GSON.toJson(new StashComment(comment)).getBytes(Charsets.UTF_8)));
 
-        return processResponse(httpClient, request, credentials, authToken, gson, StashComment.class);
+        return processResponse(httpClient, request, credentials, authToken, GSON, StashComment.class);
     }
 
     @Override
@@ -147,7 +171,7 @@ public class StashApi extends AbstractVcsApi {
         HttpPost request = new HttpPost(requestUrl);
         request.setHeader(new BasicHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType()));
 //        LOGGER.log(Level.INFO, "updateStatus gson.toJson");
-        String entityAsJson = gson.toJson(
+        String entityAsJson = GSON.toJson(
                 new StashCommitStatus(status, build.getBuildTypeExternalId() + commitHash, build.getFullName(),
                         message, targetUrl));
         request.setEntity(new StringEntity(entityAsJson));
@@ -169,7 +193,7 @@ public class StashApi extends AbstractVcsApi {
         Map<String, Object> usr = new HashMap<>();
         usr.put("name", credentials.getUserName());
         pckg.put("user", usr);
-        String entityAsJson = gson.toJson(pckg);
+        String entityAsJson = GSON.toJson(pckg);
         request.setEntity(new StringEntity(entityAsJson));
 //        System.out.println("--Approve url: " + requestUrl);
 //        System.out.println("--Approve json: " + entityAsJson);
@@ -189,7 +213,7 @@ public class StashApi extends AbstractVcsApi {
         Map<String, Object> usr = new HashMap<>();
         usr.put("name", credentials.getUserName().toLowerCase());
         pckg.put("user", usr);
-        String entityAsJson = gson.toJson(pckg);
+        String entityAsJson = GSON.toJson(pckg);
         request.setEntity(new StringEntity(entityAsJson));
         executeRequest(httpClient, request, credentials, authToken);
     }
@@ -205,7 +229,7 @@ public class StashApi extends AbstractVcsApi {
         Map<String, Object> usr = new HashMap<>();
         usr.put("name", credentials.getUserName());
         pckg.put("user", usr);
-        String entityAsJson = gson.toJson(pckg);
+        String entityAsJson = GSON.toJson(pckg);
         request.setEntity(new StringEntity(entityAsJson));
 
         toLog.put("url", requestUrl);
@@ -235,9 +259,32 @@ public class StashApi extends AbstractVcsApi {
         setDefaultHeaders(request);
 
         try {
-            return processResponse(httpClient, request, credentials, authToken, gson, StashComment.class);
+            return processResponse(httpClient, request, credentials, authToken, GSON, StashComment.class);
+        } catch (RateLimitedException e) {
+            throw e;
         } catch (UnexpectedHttpStatusException e) {
             return null;
         }
     }
+
+    private PullRequestPageIterator createPageIterator(String firstPageUrl) {
+        return new PullRequestPageIterator(firstPageUrl) {
+            @Override
+            protected PullRequests fetchPage(String pageUrl) throws IOException {
+                HttpGet request = new HttpGet(pageUrl);
+
+                return processCachedResponse(httpClient, request, credentials, authToken, GSON, StashPullRequests.class,
+                        responseCache);
+            }
+
+            @Override
+            protected String getNextPageUrl(String pageUrl, PullRequests page) {
+                StashPullRequests stashPullRequests = (StashPullRequests) page;
+                Integer nextPageStart = stashPullRequests.getNextPageStart();
+
+                return stashPullRequests.isLastPage() || nextPageStart == null
+                        ? null : apiPaths.getPage(pageUrl, nextPageStart);
+            }
+        };
+    }
 }
@@ -21,15 +21,19 @@ import com.arcbees.vcs.VcsApi;
 import com.arcbees.vcs.VcsApiFactory;
 import com.arcbees.vcs.VcsPropertiesHelper;
 import com.arcbees.vcs.VcsType;
+import com.arcbees.vcs.util.ConditionalRequestCache;
 import com.arcbees.vcs.util.HttpClientWrapper;
 
 public class StashApiFactory implements VcsApiFactory {
     private final HttpClientWrapper httpClient;
+    private final ConditionalRequestCache responseCache;
     private final StashVcsType stashVcsType;
 
     public StashApiFactory(HttpClientWrapper httpClient,
+                           ConditionalRequestCache responseCache,
                            StashVcsType stashVcsType) {
         this.httpClient = httpClient;
+        this.responseCache = responseCache;
         this.stashVcsType = stashVcsType;
     }
 
@@ -40,7 +44,7 @@ public class StashApiFactory implements VcsApiFactory {
 
     @Override
     public VcsApi create(VcsPropertiesHelper vcsPropertiesHelper) {
-        return new StashApi(httpClient, new StashApiPaths(vcsPropertiesHelper.getServerUrl()),
+        return new StashApi(httpClient, responseCache, new StashApiPaths(vcsPropertiesHelper.getServerUrl()),
                 vcsPropertiesHelper.getUserName(),
                 vcsPropertiesHelper.getPassword(),
                 vcsPropertiesHelper.getAuthToken(),
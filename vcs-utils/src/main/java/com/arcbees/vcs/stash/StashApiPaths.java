@@ -17,6 +17,12 @@
 
 package com.arcbees.vcs.stash;
 
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
 public class StashApiPaths {
     private static final String API_1 = "/rest/api/1.0/projects/";
     private static final String BUILD_STATUS = "/rest/build-status/1.0";
@@ -27,6 +33,10 @@ public class StashApiPaths {
     private static final String APPROVE = "/approve";
     private static final String SLASH = "/";
     private static final String STATE_MERGED = "?state=MERGED";
+    private static final String QUERY = "?";
+    private static final String PAGE_SIZE = "?limit=100";
+    private static final String START = "start=";
+    private static final String BRANCH_REF_PREFIX = "refs/heads/";
 
     private final String baseUrl;
 
@@ -40,13 +50,29 @@ public class StashApiPaths {
 
     public String getOpenedPullRequests(String repositoryOwner,
                                         String repositoryName) {
-        return getPullRequests(repositoryOwner, repositoryName);
+        return getPullRequests(repositoryOwner, repositoryName) + PAGE_SIZE;
     }
 
     public String getMergedPullRequests(String repositoryOwner, String repositoryName) {
         return getPullRequests(repositoryOwner, repositoryName) + STATE_MERGED;
     }
 
+    public String getPullRequestsForBranch(String repositoryOwner, String repositoryName, String branchName) {
+        return getPullRequests(repositoryOwner, repositoryName) + QUERY + URLEncodedUtils.format(Lists.newArrayList(
+                new BasicNameValuePair("at", BRANCH_REF_PREFIX + branchName),
+                new BasicNameValuePair("direction", "OUTGOING"),
+                new BasicNameValuePair("state", "ALL")), Charsets.UTF_8);
+    }
+
+    public String getPage(String pageUrl, int start) {
+        String url = pageUrl.replaceAll("([?&])" + START + "\\d+&?", "$1");
+        if (url.endsWith("?") || url.endsWith("&")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        return url + (url.contains(QUERY) ? "&" : QUERY) + START + start;
+    }
+
     public String getPullRequest(String repositoryOwner,
                                  String repositoryName,
                                  Integer pullRequestId) {
@@ -17,6 +17,7 @@
 
 package com.arcbees.vcs.stash.model;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -35,7 +36,7 @@ public class StashPullRequest implements PullRequest<StashPullRequestTarget> {
     private StashPullRequestTarget fromRef;
     private StashPullRequestTarget toRef;
     @Expose(serialize = false, deserialize = false)
-    private List<String> branchChain = Lists.newArrayList();
+    private volatile List<String> branchChain = Lists.newArrayList();
 
     @Override
     public String getStatus() {
@@ -124,9 +125,6 @@ public class StashPullRequest implements PullRequest<StashPullRequestTarget> {
 
     @Override
     public void setBranchChain(List<String> chain) {
-        branchChain.clear();
-        if (chain != null) {
-            branchChain.addAll(chain);
-        }
+        branchChain = chain == null ? Lists.<String>newArrayList() : Collections.unmodifiableList(chain);
     }
 }
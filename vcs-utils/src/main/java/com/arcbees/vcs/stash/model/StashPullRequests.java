@@ -26,6 +26,8 @@ import com.google.gson.annotations.SerializedName;
 public class StashPullRequests implements PullRequests<StashPullRequest> {
     @SerializedName("values")
     private List<StashPullRequest> pullRequests;
+    private boolean isLastPage = true;
+    private Integer nextPageStart;
 
     @Override
     public List<? extends PullRequest> getPullRequests() {
@@ -36,4 +38,20 @@ public class StashPullRequests implements PullRequests<StashPullRequest> {
     public void setPullRequests(List<StashPullRequest> pullRequests) {
         this.pullRequests = pullRequests;
     }
+
+    public boolean isLastPage() {
+        return isLastPage;
+    }
+
+    public void setLastPage(boolean lastPage) {
+        isLastPage = lastPage;
+    }
+
+    public Integer getNextPageStart() {
+        return nextPageStart;
+    }
+
+    public void setNextPageStart(Integer nextPageStart) {
+        this.nextPageStart = nextPageStart;
+    }
 }
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Objects;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class AdaptivePollingScheduler {
+    private static final Logger LOGGER = Logger.getLogger(AdaptivePollingScheduler.class.getName());
+    private static final String MIN_INTERVAL_PROPERTY = "arcbees.vcs.polling.minIntervalSeconds";
+    private static final String MAX_INTERVAL_PROPERTY = "arcbees.vcs.polling.maxIntervalSeconds";
+    private static final String WORKING_HOURS_PROPERTY = "arcbees.vcs.polling.workingHours";
+    private static final String WORKING_HOURS_MAX_INTERVAL_PROPERTY = "arcbees.vcs.polling.workingHoursMaxIntervalSeconds";
+    private static final int DEFAULT_MIN_INTERVAL = 60;
+    private static final int DEFAULT_MAX_INTERVAL = 30 * 60;
+    private static final int DEFAULT_WORKING_HOURS_MAX_INTERVAL = 2 * 60;
+
+    public static class PollState {
+        private long lastPolled;
+        private long lastChanged;
+        private String fingerprint;
+        private int interval;
+        private long deferredUntil;
+        private int failures;
+
+        public Date getLastPolled() {
+            return lastPolled == 0 ? null : new Date(lastPolled);
+        }
+
+        public Date getLastChanged() {
+            return lastChanged == 0 ? null : new Date(lastChanged);
+        }
+    }
+
+    private final ConcurrentMap<String, PollState> pollStates = new ConcurrentHashMap<>();
+    private final int minInterval;
+    private final int maxInterval;
+    private final int workingHoursMaxInterval;
+    private final int workingHoursStart;
+    private final int workingHoursEnd;
+
+    public AdaptivePollingScheduler() {
+        this(TeamCityProperties.getInteger(MIN_INTERVAL_PROPERTY, DEFAULT_MIN_INTERVAL),
+                TeamCityProperties.getInteger(MAX_INTERVAL_PROPERTY, DEFAULT_MAX_INTERVAL),
+                TeamCityProperties.getInteger(WORKING_HOURS_MAX_INTERVAL_PROPERTY, DEFAULT_WORKING_HOURS_MAX_INTERVAL),
+                TeamCityProperties.getProperty(WORKING_HOURS_PROPERTY, ""));
+    }
+
+    public AdaptivePollingScheduler(int minInterval, int maxInterval, int workingHoursMaxInterval,
+                                    String workingHours) {
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.workingHoursMaxInterval = workingHoursMaxInterval;
+
+        int[] hours = parseWorkingHours(workingHours);
+        this.workingHoursStart = hours[0];
+        this.workingHoursEnd = hours[1];
+    }
+
+    public boolean isPollDue(String key) {
+        PollState state = pollStates.get(key);
+        if (state == null) {
+            return true;
+        }
+
+        synchronized (state) {
+            long nextPoll = state.lastPolled + TimeUnit.SECONDS.toMillis(getEffectiveInterval(state));
+
+            return System.currentTimeMillis() >= Math.max(nextPoll, state.deferredUntil);
+        }
+    }
+
+    public void recordPoll(String key, String fingerprint) {
+        PollState state = getPollState(key);
+        long now = System.currentTimeMillis();
+
+        synchronized (state) {
+            if (state.lastPolled == 0 || !Objects.equal(state.fingerprint, fingerprint)) {
+                state.lastChanged = now;
+                state.interval = minInterval;
+            } else {
+                state.interval = Math.min(state.interval * 2, maxInterval);
+            }
+
+            state.fingerprint = fingerprint;
+            state.lastPolled = now;
+            state.failures = 0;
+
+            LOGGER.log(Level.FINE, "Next poll of {0} in {1}s", new Object[]{key, getEffectiveInterval(state)});
+        }
+    }
+
+    public void recordFailure(String key) {
+        recordFailure(key, 0);
+    }
+
+    public void recordFailure(String key, long retryAt) {
+        PollState state = getPollState(key);
+        long now = System.currentTimeMillis();
+
+        synchronized (state) {
+            // Back off exponentially on consecutive failures, but never retry before the server allows it
+            int backoff = (int) Math.min((long) minInterval << Math.min(state.failures, 30), maxInterval);
+            state.failures++;
+            state.lastPolled = now;
+            state.deferredUntil = Math.max(now + TimeUnit.SECONDS.toMillis(backoff), retryAt);
+
+            LOGGER.log(Level.FINE, "Polling of {0} failed {1} times, deferred until {2}",
+                    new Object[]{key, state.failures, new Date(state.deferredUntil)});
+        }
+    }
+
+    // The poll didn't fail, it just isn't due before retryAt, so the failure back-off is left alone
+    public void recordDeferral(String key, long retryAt) {
+        PollState state = getPollState(key);
+
+        synchronized (state) {
+            state.deferredUntil = Math.max(state.deferredUntil, retryAt);
+
+            LOGGER.log(Level.FINE, "Polling of {0} deferred until {1}",
+                    new Object[]{key, new Date(state.deferredUntil)});
+        }
+    }
+
+    public void recordChange(String key) {
+        PollState state = getPollState(key);
+
+        synchronized (state) {
+            state.lastChanged = System.currentTimeMillis();
+            state.interval = minInterval;
+        }
+    }
+
+    public int getPollInterval(String key) {
+        PollState state = pollStates.get(key);
+        if (state == null) {
+            return minInterval;
+        }
+
+        synchronized (state) {
+            return getEffectiveInterval(state);
+        }
+    }
+
+    public PollState getState(String key) {
+        return pollStates.get(key);
+    }
+
+    private int getEffectiveInterval(PollState state) {
+        int interval = Math.max(state.interval, minInterval);
+
+        if (isWorkingHours()) {
+            interval = Math.min(interval, Math.max(workingHoursMaxInterval, minInterval));
+        }
+
+        return interval;
+    }
+
+    private boolean isWorkingHours() {
+        if (workingHoursStart < 0) {
+            return false;
+        }
+
+        int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        if (workingHoursStart <= workingHoursEnd) {
+            return hour >= workingHoursStart && hour < workingHoursEnd;
+        }
+
+        return hour >= workingHoursStart || hour < workingHoursEnd;
+    }
+
+    private PollState getPollState(String key) {
+        PollState state = pollStates.get(key);
+        if (state == null) {
+            PollState newState = new PollState();
+            state = pollStates.putIfAbsent(key, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+
+        return state;
+    }
+
+    private static int[] parseWorkingHours(String workingHours) {
+        String[] bounds = workingHours.trim().split("-");
+
+        if (bounds.length == 2) {
+            try {
+                return new int[]{Integer.parseInt(bounds[0].trim()), Integer.parseInt(bounds[1].trim())};
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid " + WORKING_HOURS_PROPERTY + ": " + workingHours);
+            }
+        }
+
+        return new int[]{-1, -1};
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class CoalescingTaskQueue {
+    private static final Logger LOGGER = Logger.getLogger(CoalescingTaskQueue.class.getName());
+
+    private static class Task<T> {
+        private final Callable<T> callable;
+        private final SettableFuture<T> future = SettableFuture.create();
+
+        Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run() {
+            try {
+                future.set(callable.call());
+            } catch (Throwable e) {
+                future.setException(e);
+            }
+        }
+    }
+
+    private static class Entry {
+        private Task<?> pending;
+        private boolean draining;
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final AtomicLong supersededCount = new AtomicLong();
+
+    public <T> ListenableFuture<T> submit(String key, Callable<T> callable, ListeningExecutorService executorService) {
+        Task<T> task = new Task<>(callable);
+        Task<?> superseded;
+        boolean startDrain;
+
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            superseded = entry.pending;
+            entry.pending = task;
+            startDrain = !entry.draining;
+            entry.draining = true;
+        }
+
+        if (superseded != null) {
+            supersededCount.incrementAndGet();
+            LOGGER.log(Level.FINE, "Dropped superseded task for {0}", key);
+            superseded.future.set(null);
+        }
+
+        if (startDrain) {
+            startDrain(key, executorService);
+        }
+
+        return task.future;
+    }
+
+    // Returns null when an update for the key is already queued or running, that one supersedes the caller's
+    public <T> ListenableFuture<T> submitIfIdle(String key, Callable<T> callable,
+                                                ListeningExecutorService executorService) {
+        synchronized (entries) {
+            if (entries.containsKey(key)) {
+                return null;
+            }
+        }
+
+        return submit(key, callable, executorService);
+    }
+
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void startDrain(final String key, ListeningExecutorService executorService) {
+        try {
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    drain(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Task<?> pending;
+            synchronized (entries) {
+                pending = entries.remove(key).pending;
+            }
+
+            if (pending != null) {
+                pending.future.setException(e);
+            }
+        }
+    }
+
+    private void drain(String key) {
+        while (true) {
+            Task<?> task;
+            synchronized (entries) {
+                Entry entry = entries.get(key);
+                task = entry.pending;
+                entry.pending = null;
+
+                if (task == null) {
+                    entries.remove(key);
+                    return;
+                }
+            }
+
+            task.run();
+        }
+    }
+}
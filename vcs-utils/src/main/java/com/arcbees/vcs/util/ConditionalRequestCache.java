@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.auth.Credentials;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class ConditionalRequestCache {
+    private static final String MAX_ENTRIES_PROPERTY = "arcbees.vcs.responseCache.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 500;
+
+    public static class CachedResponse {
+        private final String etag;
+        private final String lastModified;
+        private final Object value;
+
+        public CachedResponse(String etag, String lastModified, Object value) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    private final Cache<String, CachedResponse> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ConditionalRequestCache() {
+        this(TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    }
+
+    public ConditionalRequestCache(int maxEntries) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    public String createKey(String requestUrl, Credentials credentials, String authToken) {
+        StringBuilder identity = new StringBuilder();
+        if (credentials != null && credentials.getUserPrincipal() != null) {
+            identity.append(credentials.getUserPrincipal().getName()).append(':').append(credentials.getPassword());
+        }
+        identity.append(':').append(Strings.nullToEmpty(authToken));
+
+        String identityHash = Hashing.sha256().hashBytes(identity.toString().getBytes(Charsets.UTF_8)).toString();
+
+        return requestUrl + "#" + identityHash;
+    }
+
+    public CachedResponse get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(String key, CachedResponse response) {
+        cache.put(key, response);
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public final class FallbackFutures {
+    public interface Fallback<V> {
+        ListenableFuture<V> create(Throwable t) throws Exception;
+    }
+
+    private FallbackFutures() {
+    }
+
+    public static <V> ListenableFuture<V> withFallback(ListenableFuture<V> input, final Fallback<V> fallback) {
+        final SettableFuture<V> result = SettableFuture.create();
+
+        Futures.addCallback(input, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                try {
+                    forward(fallback.create(t), result);
+                } catch (Throwable e) {
+                    result.setException(e);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private static <V> void forward(ListenableFuture<V> source, final SettableFuture<V> target) {
+        Futures.addCallback(source, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                target.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                target.setException(t);
+            }
+        });
+    }
+}
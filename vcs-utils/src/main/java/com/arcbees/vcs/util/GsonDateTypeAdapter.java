@@ -18,44 +18,201 @@ package com.arcbees.vcs.util;
 
 import java.lang.reflect.Type;
 import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import com.google.common.collect.ImmutableList;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 
 public class GsonDateTypeAdapter implements JsonDeserializer<Date> {
-    private static final DateFormat DATE_TIME_FORMAT = DateFormat.getDateTimeInstance();
-    private static final DateFormat DATE_TIME_LONG_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-    private static final DateFormat DATE_TIME_LONG_FORMAT_ALT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-    private static final DateFormat DATE_TIME_LONG_FORMAT_ALT2 = new SimpleDateFormat(
-            "yyyy-MM-dd'T'HH:mm:ss.SSSSSSXXX");
-    private static final DateFormat CUSTOM_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssXXX");
-    private static final List<DateFormat> dateFormats =
-            ImmutableList.of(DATE_TIME_LONG_FORMAT_ALT2, DATE_TIME_LONG_FORMAT, DATE_TIME_FORMAT,
-                    CUSTOM_DATE_FORMAT, DATE_TIME_LONG_FORMAT_ALT);
+    private enum DateShape {
+        ISO_8601,
+        EPOCH_MILLIS,
+        LOCALIZED
+    }
+
+    private static final DateShape[] DATE_SHAPES = DateShape.values();
+    private static final int MAX_EPOCH_DIGITS = 18;
+    private static final ThreadLocal<DateFormat> LOCALIZED_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return DateFormat.getDateTimeInstance();
+        }
+    };
+
+    private volatile DateShape lastShape = DateShape.ISO_8601;
 
     @Override
     public Date deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
         String value = json.getAsJsonPrimitive().getAsString();
-        synchronized (dateFormats) {
-            for (DateFormat dateFormat : dateFormats) {
-                try {
-                    return dateFormat.parse(value);
-                } catch (ParseException e) {
+
+        DateShape last = lastShape;
+        Date date = parse(last, value);
+        if (date != null) {
+            return date;
+        }
+
+        for (DateShape shape : DATE_SHAPES) {
+            if (shape != last) {
+                date = parse(shape, value);
+                if (date != null) {
+                    lastShape = shape;
+                    return date;
                 }
             }
         }
 
-        try {
-            return new Date(json.getAsJsonPrimitive().getAsLong());
-        } catch (NumberFormatException e) {
-            throw new JsonParseException(e);
+        throw new JsonParseException("Unparseable date: " + value);
+    }
+
+    private Date parse(DateShape shape, String value) {
+        switch (shape) {
+            case ISO_8601:
+                return parseIso8601(value);
+            case EPOCH_MILLIS:
+                return parseEpochMillis(value);
+            default:
+                return LOCALIZED_FORMAT.get().parse(value, new ParsePosition(0));
+        }
+    }
+
+    // yyyy-MM-dd(T| )HH:mm[:ss[.fraction]](Z|+hh[:mm]|-hh[:mm]), fractions below milliseconds are truncated
+    private Date parseIso8601(String value) {
+        int length = value.length();
+        if (length < 17 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(13) != ':') {
+            return null;
+        }
+
+        char separator = value.charAt(10);
+        if (separator != 'T' && separator != ' ') {
+            return null;
+        }
+
+        int year = readDigits(value, 0, 4);
+        int month = readDigits(value, 5, 2);
+        int day = readDigits(value, 8, 2);
+        int hour = readDigits(value, 11, 2);
+        int minute = readDigits(value, 14, 2);
+        int second = 0;
+        int millis = 0;
+        int position = 16;
+
+        if (value.charAt(position) == ':') {
+            second = readDigits(value, position + 1, 2);
+            position += 3;
+        }
+
+        if (position < length && (value.charAt(position) == '.' || value.charAt(position) == ',')) {
+            position++;
+            int scale = 100;
+            int start = position;
+            while (position < length && isDigit(value.charAt(position))) {
+                millis += (value.charAt(position) - '0') * scale;
+                scale /= 10;
+                position++;
+            }
+            if (position == start) {
+                return null;
+            }
+        }
+
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60 || position >= length) {
+            return null;
+        }
+
+        long offsetMillis;
+        char zone = value.charAt(position);
+        if (zone == 'Z' && position + 1 == length) {
+            offsetMillis = 0;
+        } else if (zone == '+' || zone == '-') {
+            offsetMillis = parseOffsetMillis(value, position + 1);
+            if (offsetMillis < 0) {
+                return null;
+            }
+            if (zone == '-') {
+                offsetMillis = -offsetMillis;
+            }
+        } else {
+            return null;
+        }
+
+        long epochSeconds = ((toEpochDay(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+
+        return new Date(TimeUnit.SECONDS.toMillis(epochSeconds) + millis - offsetMillis);
+    }
+
+    private long parseOffsetMillis(String value, int position) {
+        int length = value.length();
+        int hours = readDigits(value, position, 2);
+        int minutes = 0;
+        position += 2;
+
+        if (position < length && value.charAt(position) == ':') {
+            position++;
+        }
+        if (position < length) {
+            minutes = readDigits(value, position, 2);
+            position += 2;
+        }
+
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || position != length) {
+            return -1;
+        }
+
+        return TimeUnit.MINUTES.toMillis(hours * 60 + minutes);
+    }
+
+    private Date parseEpochMillis(String value) {
+        int length = value.length();
+        int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (length == start || length - start > MAX_EPOCH_DIGITS) {
+            return null;
+        }
+
+        long millis = 0;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                return null;
+            }
+            millis = millis * 10 + (c - '0');
+        }
+
+        return new Date(start == 0 ? millis : -millis);
+    }
+
+    private int readDigits(String value, int position, int count) {
+        if (position + count > value.length()) {
+            return -1;
+        }
+
+        int result = 0;
+        for (int i = position; i < position + count; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
         }
+
+        return result;
+    }
+
+    private boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private long toEpochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
     }
 }
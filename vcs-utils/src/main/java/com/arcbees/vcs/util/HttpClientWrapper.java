@@ -20,7 +20,10 @@ import java.io.IOException;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.pool.PoolStats;
 
 public interface HttpClientWrapper {
     HttpResponse execute(HttpUriRequest request) throws IOException;
+
+    PoolStats getPoolStats();
 }
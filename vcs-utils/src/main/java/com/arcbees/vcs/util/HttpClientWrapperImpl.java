@@ -17,30 +17,68 @@
 package com.arcbees.vcs.util;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.RequestAcceptEncoding;
 import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.version.ServerVersionHolder;
 
 public class HttpClientWrapperImpl implements HttpClientWrapper {
+    private static final Logger LOGGER = Logger.getLogger(HttpClientWrapperImpl.class.getName());
+    private static final String RETRY_COUNT_PROPERTY = "arcbees.vcs.http.retryCount";
+    private static final String CONNECT_TIMEOUT_PROPERTY = "arcbees.vcs.http.connectTimeoutMillis";
+    private static final String SOCKET_TIMEOUT_PROPERTY = "arcbees.vcs.http.socketTimeoutMillis";
+    private static final String CONNECTION_REQUEST_TIMEOUT_PROPERTY = "arcbees.vcs.http.connectionRequestTimeoutMillis";
+    private static final String MAX_PER_ROUTE_PROPERTY = "arcbees.vcs.http.maxConnectionsPerRoute";
+    private static final String MAX_PER_HOST_PROPERTY = "arcbees.vcs.http.maxConnectionsPerHost";
+    private static final String MAX_TOTAL_PROPERTY = "arcbees.vcs.http.maxConnections";
+    private static final String CONNECTION_TTL_PROPERTY = "arcbees.vcs.http.connectionTtlSeconds";
+    private static final String IDLE_TIMEOUT_PROPERTY = "arcbees.vcs.http.idleTimeoutSeconds";
+    private static final String KEEP_ALIVE_PROPERTY = "arcbees.vcs.http.keepAliveSeconds";
     private static final int RETRY_COUNT = 3;
     private static final int TIMEOUT = 30 * 1000;
+    private static final int MAX_PER_ROUTE = 10;
+    private static final int MAX_TOTAL = 50;
+    private static final long CONNECTION_TTL_SECONDS = 300;
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+    private static final long KEEP_ALIVE_SECONDS = 30;
 
     private final HttpClient httpClient;
+    private final ScheduledExecutorService connectionEvictor;
+    private final RateLimitScheduler rateLimitScheduler;
 
     private PoolingHttpClientConnectionManager connectionManager;
 
-    public HttpClientWrapperImpl() {
+    public HttpClientWrapperImpl(RateLimitScheduler rateLimitScheduler) {
+        this.rateLimitScheduler = rateLimitScheduler;
         httpClient = initHttpClient();
+        connectionEvictor = initConnectionEvictor();
     }
 
     private CloseableHttpClient initHttpClient() {
@@ -48,36 +86,121 @@ public class HttpClientWrapperImpl implements HttpClientWrapper {
 
         String serverVersion = ServerVersionHolder.getVersion().getDisplayVersion();
 
-        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager = new PoolingHttpClientConnectionManager(
+                TeamCityProperties.getLong(CONNECTION_TTL_PROPERTY, CONNECTION_TTL_SECONDS), TimeUnit.SECONDS);
+        connectionManager.setDefaultMaxPerRoute(TeamCityProperties.getInteger(MAX_PER_ROUTE_PROPERTY, MAX_PER_ROUTE));
+        connectionManager.setMaxTotal(TeamCityProperties.getInteger(MAX_TOTAL_PROPERTY, MAX_TOTAL));
+        setMaxPerHost(TeamCityProperties.getProperty(MAX_PER_HOST_PROPERTY, ""));
 
         return HttpClientBuilder.create()
                 .useSystemProperties()
                 .addInterceptorFirst(new RequestAcceptEncoding())
                 .addInterceptorFirst(new ResponseContentEncoding())
-                .setRetryHandler(new DefaultHttpRequestRetryHandler(RETRY_COUNT, true))
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(
+                        TeamCityProperties.getInteger(RETRY_COUNT_PROPERTY, RETRY_COUNT), true))
                 .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(getKeepAliveStrategy())
                 .setDefaultRequestConfig(requestConfig)
                 .setUserAgent("JetBrains TeamCity " + serverVersion)
                 .build();
     }
 
+    // Comma separated [scheme://]host[:port]=max entries, https is assumed when the scheme is left out
+    private void setMaxPerHost(String value) {
+        if (value.trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, String> limits = Splitter.on(',').trimResults().omitEmptyStrings()
+                    .withKeyValueSeparator("=")
+                    .split(value);
+
+            for (Map.Entry<String, String> limit : limits.entrySet()) {
+                String host = limit.getKey().trim();
+                URI uri = URI.create(host.contains("://") ? host : "https://" + host);
+                boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+                int port = uri.getPort() > 0 ? uri.getPort() : secure ? 443 : 80;
+
+                HttpRoute route = new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+                connectionManager.setMaxPerRoute(route, Integer.parseInt(limit.getValue().trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Invalid " + MAX_PER_HOST_PROPERTY + ": " + value, e);
+        }
+    }
+
     private RequestConfig getRequestConfig() {
         return RequestConfig.custom()
-                .setConnectTimeout(TIMEOUT)
-                .setSocketTimeout(TIMEOUT)
+                .setConnectTimeout(TeamCityProperties.getInteger(CONNECT_TIMEOUT_PROPERTY, TIMEOUT))
+                .setSocketTimeout(TeamCityProperties.getInteger(SOCKET_TIMEOUT_PROPERTY, TIMEOUT))
+                .setConnectionRequestTimeout(TeamCityProperties.getInteger(CONNECTION_REQUEST_TIMEOUT_PROPERTY, TIMEOUT))
                 .build();
     }
 
+    private ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+        final long defaultKeepAlive = TimeUnit.SECONDS.toMillis(
+                TeamCityProperties.getLong(KEEP_ALIVE_PROPERTY, KEEP_ALIVE_SECONDS));
+
+        return new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long keepAlive = super.getKeepAliveDuration(response, context);
+
+                return keepAlive > 0 ? keepAlive : defaultKeepAlive;
+            }
+        };
+    }
+
+    private ScheduledExecutorService initConnectionEvictor() {
+        final long idleTimeout = TeamCityProperties.getLong(IDLE_TIMEOUT_PROPERTY, IDLE_TIMEOUT_SECONDS);
+
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("arcbees-vcs-connection-evictor")
+                .setDaemon(true)
+                .build());
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+
+                // Requests waiting for a connection mean the pool limits are too low for the load
+                PoolStats stats = connectionManager.getTotalStats();
+                LOGGER.log(stats.getPending() > 0 ? Level.WARNING : Level.FINE, "VCS connection pool {0}", stats);
+            }
+        }, idleTimeout, idleTimeout, TimeUnit.SECONDS);
+
+        return evictor;
+    }
+
     public HttpResponse execute(HttpUriRequest request) throws IOException {
+        String rateLimitKey = RateLimitScheduler.getRateLimitKey(request);
+        rateLimitScheduler.acquire(rateLimitKey, RateLimitScheduler.getPriority());
+
         try {
-            return httpClient.execute(request);
+            HttpResponse response = httpClient.execute(request);
+            long retryAt = rateLimitScheduler.update(rateLimitKey, response);
+
+            if (RateLimitScheduler.isRateLimited(response)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new RateLimitedException(response.getStatusLine().getStatusCode(),
+                        "Rate limit reached. Status: " + response.getStatusLine(), retryAt);
+            }
+
+            return response;
         } catch (IOException e) {
             request.abort();
             throw e;
         }
     }
 
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
     public void shutdown() {
+        connectionEvictor.shutdownNow();
         connectionManager.shutdown();
     }
 }
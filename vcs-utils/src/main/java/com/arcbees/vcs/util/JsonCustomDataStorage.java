@@ -16,20 +16,53 @@
 
 package com.arcbees.vcs.util;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.arcbees.vcs.bitbucket.model.BitbucketComment;
+import com.arcbees.vcs.bitbucket.model.BitbucketPullRequest;
+import com.arcbees.vcs.github.model.GitHubComment;
+import com.arcbees.vcs.github.model.GitHubPullRequest;
 import com.arcbees.vcs.model.Comment;
+import com.arcbees.vcs.model.CommentReference;
 import com.arcbees.vcs.model.PullRequest;
+import com.arcbees.vcs.stash.model.StashComment;
+import com.arcbees.vcs.stash.model.StashPullRequest;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
 import jetbrains.buildServer.serverSide.CustomDataStorage;
 
 public class JsonCustomDataStorage<T> {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new PolymorphicTypeAdapterFactory<>(PullRequest.class)
+                    .registerSubtype("github", GitHubPullRequest.class)
+                    .registerSubtype("stash", StashPullRequest.class)
+                    .registerSubtype("bitbucket", BitbucketPullRequest.class))
+            .registerTypeAdapterFactory(new PolymorphicTypeAdapterFactory<>(Comment.class)
+                    .registerSubtype("github", GitHubComment.class)
+                    .registerSubtype("stash", StashComment.class)
+                    .registerSubtype("bitbucket", BitbucketComment.class)
+                    .registerSubtype("reference", CommentReference.class))
+            .create();
+
     public static <T> JsonCustomDataStorage<T> create(CustomDataStorage dataStorage, Class<T> clazz) {
         return new JsonCustomDataStorage<T>(dataStorage, clazz);
     }
 
+    public static <T> JsonCustomDataStorage<T> create(CustomDataStorage dataStorage, Class<T> clazz,
+                                                      StateRecordFormat<T> recordFormat) {
+        return new JsonCustomDataStorage<T>(dataStorage, clazz, recordFormat, false);
+    }
+
+    public static <T> JsonCustomDataStorage<T> createWriteBehind(CustomDataStorage dataStorage, Class<T> clazz,
+                                                                 StateRecordFormat<T> recordFormat) {
+        return new JsonCustomDataStorage<T>(dataStorage, clazz, recordFormat, true);
+    }
+
     public static <T> JsonCustomDataStorage<T> create(CustomDataStorage dataStorage, TypeToken<T> typeToken) {
         return new JsonCustomDataStorage<T>(dataStorage, typeToken);
     }
@@ -37,15 +70,22 @@ public class JsonCustomDataStorage<T> {
     private final CustomDataStorage dataStorage;
     private final Class<T> clazz;
     private final TypeToken<T> typeToken;
-    private final Gson gson = new GsonBuilder()
-            .registerTypeAdapter(PullRequest.class, new PolymorphicTypeAdapter<PullRequest>())
-            .registerTypeAdapter(Comment.class, new PolymorphicTypeAdapter<Comment>())
-            .create();
+    private final StateRecordFormat<T> recordFormat;
+    private final Map<String, String> pendingValues;
 
     private JsonCustomDataStorage(CustomDataStorage dataStorage,
                                   Class<T> clazz) {
+        this(dataStorage, clazz, null, false);
+    }
+
+    private JsonCustomDataStorage(CustomDataStorage dataStorage,
+                                  Class<T> clazz,
+                                  StateRecordFormat<T> recordFormat,
+                                  boolean writeBehind) {
         this.dataStorage = dataStorage;
         this.clazz = clazz;
+        this.recordFormat = recordFormat;
+        this.pendingValues = writeBehind ? new LinkedHashMap<String, String>() : null;
         typeToken = null;
     }
 
@@ -54,19 +94,25 @@ public class JsonCustomDataStorage<T> {
         this.dataStorage = dataStorage;
         this.typeToken = typeToken;
         clazz = null;
+        recordFormat = null;
+        pendingValues = null;
     }
 
     public T getValue(String key) {
-        String value = dataStorage.getValue(key);
+        String value = pendingValues != null && pendingValues.containsKey(key)
+                ? pendingValues.get(key)
+                : dataStorage.getValue(key);
 
         T object;
         try {
-            if (clazz != null) {
-                object = gson.fromJson(value, clazz);
+            if (recordFormat != null && StateRecord.isRecord(value)) {
+                object = recordFormat.read(StateRecord.parse(value));
+            } else if (clazz != null) {
+                object = GSON.fromJson(value, clazz);
             } else {
-                object = gson.fromJson(value, typeToken.getType());
+                object = GSON.fromJson(value, typeToken.getType());
             }
-        } catch (JsonSyntaxException e) {
+        } catch (JsonParseException | IllegalArgumentException e) {
             object = null;
         }
 
@@ -74,7 +120,21 @@ public class JsonCustomDataStorage<T> {
     }
 
     public void putValue(String key, T object) {
-        String value = gson.toJson(object);
-        dataStorage.putValue(key, value);
+        String value = recordFormat != null ? recordFormat.write(object).format() : GSON.toJson(object);
+
+        if (pendingValues != null) {
+            pendingValues.put(key, value);
+        } else {
+            dataStorage.putValue(key, value);
+        }
+    }
+
+    public void flush() {
+        if (pendingValues != null && !pendingValues.isEmpty()) {
+            dataStorage.putValues(new HashMap<>(pendingValues));
+            pendingValues.clear();
+        }
+
+        dataStorage.flush();
     }
 }
@@ -1,62 +0,0 @@
-/**
- * Copyright 2014 ArcBees Inc.
- *
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not
- * use this file except in compliance with the License. You may obtain a copy of
- * the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
- * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
- * License for the specific language governing permissions and limitations under
- * the License.
- */
-
-package com.arcbees.vcs.util;
-
-import java.lang.reflect.Type;
-
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-
-public class PolymorphicTypeAdapter<T> implements JsonSerializer<T>, JsonDeserializer<T> {
-    private static final String CLASSNAME = "@class";
-    private static final String VALUE = "@value";
-
-    @Override
-    public T deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-        JsonObject jsonObject = json.getAsJsonObject();
-        JsonPrimitive jsonPrimitive = (JsonPrimitive) jsonObject.get(CLASSNAME);
-        String className = jsonPrimitive.getAsString();
-
-        Class<?> clazz;
-        try {
-            clazz = Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            throw new JsonParseException(e.getMessage());
-        }
-
-        return context.deserialize(jsonObject.get(VALUE), clazz);
-    }
-
-    @Override
-    public JsonElement serialize(T src, Type typeOfSrc, JsonSerializationContext context) {
-        JsonObject retValue = new JsonObject();
-
-        String className = src.getClass().getCanonicalName();
-        retValue.addProperty(CLASSNAME, className);
-
-        JsonElement jsonElement = context.serialize(src);
-        retValue.add(VALUE, jsonElement);
-
-        return retValue;
-    }
-}
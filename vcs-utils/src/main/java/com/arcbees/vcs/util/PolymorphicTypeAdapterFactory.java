@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+public class PolymorphicTypeAdapterFactory<T> implements TypeAdapterFactory {
+    private static final String TYPE = "@type";
+    private static final String CLASSNAME = "@class";
+    private static final String VALUE = "@value";
+
+    private final Class<T> baseType;
+    private final Map<String, Class<? extends T>> subtypes = Maps.newLinkedHashMap();
+
+    public PolymorphicTypeAdapterFactory(Class<T> baseType) {
+        this.baseType = baseType;
+    }
+
+    public PolymorphicTypeAdapterFactory<T> registerSubtype(String token, Class<? extends T> subtype) {
+        subtypes.put(token, subtype);
+
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> TypeAdapter<R> create(final Gson gson, TypeToken<R> type) {
+        if (!baseType.equals(type.getRawType())) {
+            return null;
+        }
+
+        final TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+        final Map<String, TypeAdapter<?>> adaptersByToken = Maps.newHashMap();
+        final Map<String, TypeAdapter<?>> adaptersByClassName = Maps.newHashMap();
+        final Map<Class<?>, String> tokensByClass = Maps.newHashMap();
+
+        for (Map.Entry<String, Class<? extends T>> subtype : subtypes.entrySet()) {
+            TypeAdapter<?> adapter = gson.getAdapter(subtype.getValue());
+
+            adaptersByToken.put(subtype.getKey(), adapter);
+            adaptersByClassName.put(subtype.getValue().getCanonicalName(), adapter);
+            tokensByClass.put(subtype.getValue(), subtype.getKey());
+        }
+
+        return (TypeAdapter<R>) new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                if (value == null) {
+                    out.nullValue();
+                    return;
+                }
+
+                JsonObject envelope = new JsonObject();
+                String token = tokensByClass.get(value.getClass());
+                if (token != null) {
+                    envelope.addProperty(TYPE, token);
+                    envelope.add(VALUE, ((TypeAdapter<T>) adaptersByToken.get(token)).toJsonTree(value));
+                } else {
+                    envelope.addProperty(CLASSNAME, value.getClass().getCanonicalName());
+                    envelope.add(VALUE, gson.toJsonTree(value));
+                }
+
+                elementAdapter.write(out, envelope);
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                JsonElement json = elementAdapter.read(in);
+                if (json == null || json.isJsonNull()) {
+                    return null;
+                }
+
+                JsonObject envelope = json.getAsJsonObject();
+                TypeAdapter<?> adapter;
+                if (envelope.has(TYPE)) {
+                    adapter = adaptersByToken.get(envelope.get(TYPE).getAsString());
+                } else if (envelope.has(CLASSNAME)) {
+                    String className = envelope.get(CLASSNAME).getAsString();
+                    adapter = adaptersByClassName.get(className);
+
+                    if (adapter == null) {
+                        adapter = getLegacyAdapter(gson, className);
+                    }
+                } else {
+                    throw new JsonParseException("Missing type of " + baseType.getName());
+                }
+
+                if (adapter == null) {
+                    throw new JsonParseException("Unknown type of " + baseType.getName() + ": " + envelope);
+                }
+
+                return baseType.cast(adapter.fromJsonTree(envelope.get(VALUE)));
+            }
+        };
+    }
+
+    private TypeAdapter<?> getLegacyAdapter(Gson gson, String className) {
+        try {
+            Class<?> clazz = Class.forName(className);
+
+            return baseType.isAssignableFrom(clazz) ? gson.getAdapter(clazz) : null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class RateLimitScheduler {
+    private static final Logger LOGGER = Logger.getLogger(RateLimitScheduler.class.getName());
+    private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    private static final String RESET_HEADER = "X-RateLimit-Reset";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+    private static final String RESERVED_REQUESTS_PROPERTY = "arcbees.vcs.rateLimit.reservedRequests";
+    private static final String MAX_HIGH_PRIORITY_WAIT_PROPERTY = "arcbees.vcs.rateLimit.maxHighPriorityWaitMillis";
+    private static final String DEFAULT_RETRY_AFTER_PROPERTY = "arcbees.vcs.rateLimit.defaultRetryAfterSeconds";
+    private static final int DEFAULT_RESERVED_REQUESTS = 50;
+    private static final long DEFAULT_MAX_HIGH_PRIORITY_WAIT = 30000;
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 60;
+    private static final long DEFAULT_MIN_SAMPLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final ThreadLocal<Priority> PRIORITY = new ThreadLocal<>();
+
+    public enum Priority {
+        LOW,
+        HIGH
+    }
+
+    private static class LimitState {
+        private long remaining = -1;
+        private long resetAt;
+        private long blockedUntil;
+        private long nextSlot;
+        private long sampleStartedAt;
+        private long sampleStartRemaining;
+    }
+
+    private final ConcurrentMap<String, LimitState> limitStates = new ConcurrentHashMap<>();
+    private final int reservedRequests;
+    private final long maxHighPriorityWait;
+    private final long defaultRetryAfter;
+    private final long minSampleMillis;
+
+    public RateLimitScheduler() {
+        this(TeamCityProperties.getInteger(RESERVED_REQUESTS_PROPERTY, DEFAULT_RESERVED_REQUESTS),
+                TeamCityProperties.getLong(MAX_HIGH_PRIORITY_WAIT_PROPERTY, DEFAULT_MAX_HIGH_PRIORITY_WAIT),
+                TimeUnit.SECONDS.toMillis(
+                        TeamCityProperties.getLong(DEFAULT_RETRY_AFTER_PROPERTY, DEFAULT_RETRY_AFTER_SECONDS)),
+                DEFAULT_MIN_SAMPLE_MILLIS);
+    }
+
+    public RateLimitScheduler(int reservedRequests, long maxHighPriorityWait, long defaultRetryAfter,
+                              long minSampleMillis) {
+        this.reservedRequests = reservedRequests;
+        this.maxHighPriorityWait = maxHighPriorityWait;
+        this.defaultRetryAfter = defaultRetryAfter;
+        this.minSampleMillis = minSampleMillis;
+    }
+
+    public static <T> Callable<T> withPriority(final Priority priority, final Callable<T> callable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Priority previous = PRIORITY.get();
+                PRIORITY.set(priority);
+                try {
+                    return callable.call();
+                } finally {
+                    if (previous == null) {
+                        PRIORITY.remove();
+                    } else {
+                        PRIORITY.set(previous);
+                    }
+                }
+            }
+        };
+    }
+
+    public static Priority getPriority() {
+        Priority priority = PRIORITY.get();
+
+        return priority == null ? Priority.LOW : priority;
+    }
+
+    // Quotas are per credential, so two tokens on the same host must not share their counters
+    public static String getRateLimitKey(HttpUriRequest request) {
+        String host = request.getURI().getHost();
+        Header authorization = request.getFirstHeader(HttpHeaders.AUTHORIZATION);
+
+        if (authorization == null) {
+            return host;
+        }
+
+        return host + "|" + Hashing.sha256().newHasher()
+                .putString(authorization.getValue(), Charsets.UTF_8)
+                .hash()
+                .toString()
+                .substring(0, 16);
+    }
+
+    public static boolean isRateLimited(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == TOO_MANY_REQUESTS) {
+            return true;
+        }
+
+        return statusCode == HttpURLConnection.HTTP_FORBIDDEN
+                && (response.containsHeader(HttpHeaders.RETRY_AFTER)
+                || Long.valueOf(0).equals(getLongHeader(response, REMAINING_HEADER)));
+    }
+
+    // Never waits on the calling thread, a request that isn't allowed yet is rescheduled by its caller
+    public void acquire(String key, Priority priority) throws RateLimitedException {
+        LimitState state = getLimitState(key);
+        long now = System.currentTimeMillis();
+
+        synchronized (state) {
+            if (state.blockedUntil > now) {
+                throw new RateLimitedException("Rate limit reached for " + key + " until "
+                        + new Date(state.blockedUntil), state.blockedUntil);
+            }
+
+            if (state.remaining < 0 || state.resetAt <= now) {
+                return;
+            }
+
+            if (priority == Priority.HIGH) {
+                if (state.remaining == 0) {
+                    throw new RateLimitedException("Rate limit reached for " + key + " until "
+                            + new Date(state.resetAt), state.resetAt);
+                }
+
+                state.remaining--;
+                return;
+            }
+
+            reserveLowPriority(state, key, now);
+        }
+    }
+
+    public long update(String key, HttpResponse response) {
+        LimitState state = getLimitState(key);
+        long now = System.currentTimeMillis();
+
+        Long remaining = getLongHeader(response, REMAINING_HEADER);
+        Long reset = getLongHeader(response, RESET_HEADER);
+        long retryAt = getRetryAt(response, now);
+
+        synchronized (state) {
+            if (remaining != null) {
+                // A new quota window starts when the counter goes back up or the previous reset has passed
+                if (state.sampleStartedAt == 0 || remaining > state.sampleStartRemaining || state.resetAt <= now) {
+                    state.sampleStartedAt = now;
+                    state.sampleStartRemaining = remaining;
+                    state.nextSlot = 0;
+                }
+                state.remaining = remaining;
+            }
+            if (reset != null) {
+                state.resetAt = reset > EPOCH_SECONDS_THRESHOLD
+                        ? TimeUnit.SECONDS.toMillis(reset)
+                        : now + TimeUnit.SECONDS.toMillis(reset);
+            }
+
+            if (isRateLimited(response)) {
+                if (retryAt <= now) {
+                    retryAt = state.resetAt > now ? state.resetAt : now + defaultRetryAfter;
+                }
+                state.blockedUntil = Math.max(state.blockedUntil, retryAt);
+
+                LOGGER.log(Level.WARNING, "Rate limit reached for {0}, requests deferred until {1}",
+                        new Object[]{key, new Date(state.blockedUntil)});
+            }
+
+            return state.blockedUntil;
+        }
+    }
+
+    public long getMaxHighPriorityWait() {
+        return maxHighPriorityWait;
+    }
+
+    private void reserveLowPriority(LimitState state, String key, long now) throws RateLimitedException {
+        long available = state.remaining - reservedRequests;
+        if (available <= 0) {
+            throw new RateLimitedException("Deferring request to " + key + ", " + state.remaining
+                    + " requests left until " + new Date(state.resetAt), state.resetAt);
+        }
+
+        // Only spread the requests over the window when the current pace would run out of quota before the reset
+        if (isQuotaAtRisk(state, available, now)) {
+            long slot = Math.max(now, state.nextSlot);
+            if (slot > now) {
+                throw new RateLimitedException("Deferring request to " + key + " to spread the remaining quota",
+                        slot);
+            }
+
+            state.nextSlot = slot + (state.resetAt - now) / available;
+        }
+
+        state.remaining--;
+    }
+
+    private boolean isQuotaAtRisk(LimitState state, long available, long now) {
+        long elapsed = now - state.sampleStartedAt;
+        if (elapsed <= 0 || elapsed < minSampleMillis) {
+            return false;
+        }
+
+        long used = state.sampleStartRemaining - state.remaining;
+        long projected = used * (state.resetAt - now) / elapsed;
+
+        return projected >= available;
+    }
+
+    private long getRetryAt(HttpResponse response, long now) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null) {
+            return 0;
+        }
+
+        Long seconds = parseLong(header.getValue());
+        if (seconds != null) {
+            return now + TimeUnit.SECONDS.toMillis(seconds);
+        }
+
+        Date date = DateUtils.parseDate(header.getValue());
+
+        return date == null ? 0 : date.getTime();
+    }
+
+    private LimitState getLimitState(String key) {
+        LimitState state = limitStates.get(key);
+        if (state == null) {
+            LimitState newState = new LimitState();
+            state = limitStates.putIfAbsent(key, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+
+        return state;
+    }
+
+    private static Long getLongHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+
+        return header == null ? null : parseLong(header.getValue());
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+public class RateLimitedException extends UnexpectedHttpStatusException {
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final long retryAt;
+    private final boolean deferred;
+
+    // Thrown before the request is sent, when the scheduler holds it back to protect the remaining quota
+    public RateLimitedException(String message, long retryAt) {
+        this(TOO_MANY_REQUESTS, message, retryAt, true);
+    }
+
+    public RateLimitedException(int statusCode, String message, long retryAt) {
+        this(statusCode, message, retryAt, false);
+    }
+
+    private RateLimitedException(int statusCode, String message, long retryAt, boolean deferred) {
+        super(statusCode, message);
+        this.retryAt = retryAt;
+        this.deferred = deferred;
+    }
+
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jetbrains.buildServer.serverSide.CustomDataStorage;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class StateCompactor {
+    private static final Logger LOGGER = Logger.getLogger(StateCompactor.class.getName());
+    private static final String INTERVAL_PROPERTY = "arcbees.vcs.compaction.intervalMinutes";
+    private static final String RETENTION_PROPERTY = "arcbees.vcs.compaction.retentionHours";
+    private static final int DEFAULT_INTERVAL = 60;
+    private static final int DEFAULT_RETENTION = 7 * 24;
+
+    public static class CompactionResult {
+        private final int reclaimedKeys;
+        private final long reclaimedBytes;
+
+        public CompactionResult(int reclaimedKeys, long reclaimedBytes) {
+            this.reclaimedKeys = reclaimedKeys;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        public int getReclaimedKeys() {
+            return reclaimedKeys;
+        }
+
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+    }
+
+    private final ConcurrentMap<String, Long> lastCompactions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> deadSince = new ConcurrentHashMap<>();
+    private final AtomicLong reclaimedKeys = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final ExecutorService executor;
+    private final long intervalMillis;
+    private final long retentionMillis;
+
+    public StateCompactor() {
+        this(TimeUnit.MINUTES.toMillis(TeamCityProperties.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL)),
+                TimeUnit.HOURS.toMillis(TeamCityProperties.getInteger(RETENTION_PROPERTY, DEFAULT_RETENTION)));
+    }
+
+    public StateCompactor(long intervalMillis, long retentionMillis) {
+        this.intervalMillis = intervalMillis;
+        this.retentionMillis = retentionMillis;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("arcbees-vcs-state-compactor")
+                .setDaemon(true)
+                .build());
+    }
+
+    public boolean isCompactionDue(String storageName) {
+        Long lastCompaction = lastCompactions.get(storageName);
+
+        return lastCompaction == null || System.currentTimeMillis() - lastCompaction >= intervalMillis;
+    }
+
+    public void scheduleCompaction(final String storageName,
+                                   final CustomDataStorage dataStorage,
+                                   final String keyPrefix,
+                                   Set<String> liveKeys) {
+        if (!isCompactionDue(storageName)) {
+            return;
+        }
+        lastCompactions.put(storageName, System.currentTimeMillis());
+
+        final Set<String> liveKeysCopy = ImmutableSet.copyOf(liveKeys);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact(storageName, dataStorage, keyPrefix, liveKeysCopy);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Error compacting state of " + storageName, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "State compaction rejected for " + storageName, e);
+        }
+    }
+
+    public CompactionResult compact(String storageName,
+                                    CustomDataStorage dataStorage,
+                                    String keyPrefix,
+                                    Set<String> liveKeys) {
+        Map<String, String> values = dataStorage.getValues();
+        if (values == null) {
+            return new CompactionResult(0, 0);
+        }
+
+        long now = System.currentTimeMillis();
+        String deadKeyPrefix = storageName + "|";
+        int keys = 0;
+        long bytes = 0;
+
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(keyPrefix)) {
+                continue;
+            }
+
+            String deadKey = deadKeyPrefix + key;
+            if (liveKeys.contains(key)) {
+                deadSince.remove(deadKey);
+                continue;
+            }
+
+            Long since = deadSince.putIfAbsent(deadKey, now);
+            if (since != null && now - since >= retentionMillis) {
+                dataStorage.putValue(key, null);
+                deadSince.remove(deadKey);
+
+                keys++;
+                bytes += getSize(key) + getSize(entry.getValue());
+            }
+        }
+
+        forgetRemovedKeys(deadKeyPrefix, values);
+
+        if (keys > 0) {
+            dataStorage.flush();
+            reclaimedKeys.addAndGet(keys);
+            reclaimedBytes.addAndGet(bytes);
+
+            LOGGER.log(Level.INFO, "Compacted state of {0}: removed {1} stale entries, reclaimed {2} bytes",
+                    new Object[]{storageName, keys, bytes});
+        }
+
+        return new CompactionResult(keys, bytes);
+    }
+
+    public long getReclaimedKeys() {
+        return reclaimedKeys.get();
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void forgetRemovedKeys(String deadKeyPrefix, Map<String, String> values) {
+        Iterator<String> deadKeys = deadSince.keySet().iterator();
+        while (deadKeys.hasNext()) {
+            String deadKey = deadKeys.next();
+
+            if (deadKey.startsWith(deadKeyPrefix) && !values.containsKey(deadKey.substring(deadKeyPrefix.length()))) {
+                deadKeys.remove();
+            }
+        }
+    }
+
+    private long getSize(String value) {
+        return Strings.nullToEmpty(value).getBytes(Charsets.UTF_8).length;
+    }
+}
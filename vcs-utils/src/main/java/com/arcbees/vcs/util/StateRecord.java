@@ -0,0 +1,127 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Strings;
+
+public class StateRecord {
+    private static final String VERSION_PREFIX = "@v";
+    private static final char SEPARATOR = '|';
+    private static final char ESCAPE = '\\';
+
+    private final int version;
+    private final List<String> fields;
+
+    public StateRecord(int version) {
+        this(version, new ArrayList<String>());
+    }
+
+    private StateRecord(int version, List<String> fields) {
+        this.version = version;
+        this.fields = fields;
+    }
+
+    public static boolean isRecord(String value) {
+        return value != null && value.startsWith(VERSION_PREFIX);
+    }
+
+    public static StateRecord parse(String value) {
+        int versionEnd = value.indexOf(SEPARATOR);
+        if (versionEnd < 0) {
+            versionEnd = value.length();
+        }
+
+        int version;
+        try {
+            version = Integer.parseInt(value.substring(VERSION_PREFIX.length(), versionEnd));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid state record version: " + value);
+        }
+
+        List<String> fields = new ArrayList<>();
+        if (versionEnd < value.length()) {
+            StringBuilder field = new StringBuilder();
+            for (int i = versionEnd + 1; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c == ESCAPE && i + 1 < value.length()) {
+                    field.append(value.charAt(++i));
+                } else if (c == SEPARATOR) {
+                    fields.add(Strings.emptyToNull(field.toString()));
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(Strings.emptyToNull(field.toString()));
+        }
+
+        return new StateRecord(version, fields);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public StateRecord add(Object value) {
+        fields.add(value == null ? null : String.valueOf(value));
+
+        return this;
+    }
+
+    public String getString(int index) {
+        return index < fields.size() ? fields.get(index) : null;
+    }
+
+    public Integer getInteger(int index) {
+        String value = getString(index);
+
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    public Long getLong(int index) {
+        String value = getString(index);
+
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    public boolean getBoolean(int index) {
+        return Boolean.parseBoolean(getString(index));
+    }
+
+    public String format() {
+        StringBuilder record = new StringBuilder(VERSION_PREFIX).append(version);
+
+        for (String field : fields) {
+            record.append(SEPARATOR);
+
+            String value = Strings.nullToEmpty(field);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == SEPARATOR || c == ESCAPE) {
+                    record.append(ESCAPE);
+                }
+                record.append(c);
+            }
+        }
+
+        return record.toString();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.Set;
+
+import com.arcbees.vcs.model.PullRequest;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class UnusedFieldsExclusionStrategy implements ExclusionStrategy {
+    private static final String SKIP_UNUSED_FIELDS_PROPERTY = "arcbees.vcs.skipUnusedFields";
+    private static final Set<String> UNUSED_PULL_REQUEST_FIELDS = ImmutableSet.of("body", "description", "title");
+
+    private final boolean enabled;
+
+    public UnusedFieldsExclusionStrategy() {
+        this(TeamCityProperties.getBooleanOrTrue(SKIP_UNUSED_FIELDS_PROPERTY));
+    }
+
+    public UnusedFieldsExclusionStrategy(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean shouldSkipField(FieldAttributes f) {
+        return enabled
+                && PullRequest.class.isAssignableFrom(f.getDeclaringClass())
+                && UNUSED_PULL_REQUEST_FIELDS.contains(f.getName());
+    }
+
+    @Override
+    public boolean shouldSkipClass(Class<?> clazz) {
+        return false;
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2016 ArcBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.arcbees.vcs.util;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+public class VcsRequestExecutor {
+    private static final Logger LOGGER = Logger.getLogger(VcsRequestExecutor.class.getName());
+    private static final String THREADS_PROPERTY = "arcbees.vcs.executor.threads";
+    private static final String QUEUE_CAPACITY_PROPERTY = "arcbees.vcs.executor.queueCapacity";
+    private static final String HOST_CONCURRENCY_PROPERTY = "arcbees.vcs.executor.hostConcurrency";
+    private static final String HOST_QUEUE_CAPACITY_PROPERTY = "arcbees.vcs.executor.hostQueueCapacity";
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_HOST_CONCURRENCY = 4;
+    private static final int DEFAULT_HOST_QUEUE_CAPACITY = 500;
+    private static final int KEEP_ALIVE_SECONDS = 60;
+    private static final int SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final ThreadPoolExecutor threadPool;
+    private final ListeningExecutorService executorService;
+    private final ConcurrentMap<String, HostExecutor> hostExecutors = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final ScheduledThreadPoolExecutor retryScheduler;
+    private final int hostConcurrency;
+    private final int hostQueueCapacity;
+
+    public VcsRequestExecutor() {
+        this(TeamCityProperties.getInteger(THREADS_PROPERTY, DEFAULT_THREADS),
+                TeamCityProperties.getInteger(QUEUE_CAPACITY_PROPERTY, DEFAULT_QUEUE_CAPACITY),
+                TeamCityProperties.getInteger(HOST_CONCURRENCY_PROPERTY, DEFAULT_HOST_CONCURRENCY),
+                TeamCityProperties.getInteger(HOST_QUEUE_CAPACITY_PROPERTY, DEFAULT_HOST_QUEUE_CAPACITY));
+    }
+
+    public VcsRequestExecutor(int threads, int queueCapacity, int hostConcurrency, int hostQueueCapacity) {
+        this("arcbees-vcs-request-%d", threads, queueCapacity, hostConcurrency, hostQueueCapacity);
+    }
+
+    public VcsRequestExecutor(String threadNameFormat,
+                              int threads,
+                              int queueCapacity,
+                              int hostConcurrency,
+                              int hostQueueCapacity) {
+        this.hostConcurrency = hostConcurrency;
+        this.hostQueueCapacity = hostQueueCapacity;
+
+        threadPool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(threadNameFormat)
+                        .setDaemon(true)
+                        .build(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        onRejected("all hosts");
+                        throw new RejectedExecutionException("VCS request queue is full");
+                    }
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+
+        executorService = MoreExecutors.listeningDecorator(threadPool);
+
+        // Delayed retries only resubmit to the pool, so a single thread is enough
+        retryScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat(threadNameFormat.replace("%d", "retry"))
+                .setDaemon(true)
+                .build());
+    }
+
+    public ListeningExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public ListeningExecutorService getExecutorService(String host) {
+        if (host == null) {
+            return executorService;
+        }
+
+        HostExecutor hostExecutor = hostExecutors.get(host);
+        if (hostExecutor == null) {
+            HostExecutor newHostExecutor = new HostExecutor(host);
+            hostExecutor = hostExecutors.putIfAbsent(host, newHostExecutor);
+            if (hostExecutor == null) {
+                hostExecutor = newHostExecutor;
+            }
+        }
+
+        return hostExecutor.listeningExecutorService;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public int getQueueSize() {
+        return threadPool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return threadPool.getActiveCount();
+    }
+
+    public int getPendingCount(String host) {
+        HostExecutor hostExecutor = hostExecutors.get(host);
+
+        return hostExecutor == null ? 0 : hostExecutor.getPendingCount();
+    }
+
+    public ScheduledExecutorService getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    public void shutdown() throws InterruptedException {
+        retryScheduler.shutdownNow();
+        threadPool.shutdown();
+        threadPool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void onRejected(String target) {
+        long rejected = rejectedCount.incrementAndGet();
+
+        LOGGER.log(Level.WARNING, "Rejected VCS request for {0}, {1} rejected so far", new Object[]{target, rejected});
+    }
+
+    private class HostExecutor extends AbstractExecutorService {
+        private final String host;
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private final ListeningExecutorService listeningExecutorService;
+
+        private int running;
+
+        HostExecutor(String host) {
+            this.host = host;
+            this.listeningExecutorService = MoreExecutors.listeningDecorator(this);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                if (running >= hostConcurrency) {
+                    if (pending.size() >= hostQueueCapacity) {
+                        onRejected(host);
+                        throw new RejectedExecutionException("VCS request queue for " + host + " is full");
+                    }
+
+                    pending.add(command);
+                    return;
+                }
+
+                running++;
+            }
+
+            if (!dispatch(command)) {
+                onComplete();
+                throw new RejectedExecutionException("VCS request queue is full");
+            }
+        }
+
+        synchronized int getPendingCount() {
+            return pending.size();
+        }
+
+        private boolean dispatch(final Runnable command) {
+            try {
+                threadPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            onComplete();
+                        }
+                    }
+                });
+
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        private void onComplete() {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    next = pending.poll();
+                    if (next == null) {
+                        running--;
+                        return;
+                    }
+                }
+
+                if (dispatch(next)) {
+                    return;
+                }
+
+                if (next instanceof Future) {
+                    ((Future<?>) next).cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return threadPool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return threadPool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return threadPool.awaitTermination(timeout, unit);
+        }
+    }
+}